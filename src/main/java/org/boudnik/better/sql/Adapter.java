@@ -4,33 +4,132 @@
 
 package org.boudnik.better.sql;
 
+import java.io.*;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Alexandre Boudnik (BoudnikA)
  * @since Aug 16, 2010 3:20:33 PM
  */
 abstract class Adapter {
+    private final int sqlType;
+    private final String schemaType;
 
-    protected Object getValue(OBJ.FIELD type, ResultSet rs, int index) throws SQLException {
-        return rs.getObject(index);
+    /**
+     * @param sqlType    {@link Types} NULL is bound as
+     * @param schemaType column type of the dialect, a format which may take the length of the field
+     */
+    protected Adapter(int sqlType, String schemaType) {
+        this.sqlType = sqlType;
+        this.schemaType = schemaType;
     }
 
-    protected Finalizer setValue(OBJ.FIELD type, PreparedStatement ps, int index, Object value) throws SQLException {
-        ps.setObject(index, value/*, type*/);
+    /**
+     * Reads the column; by default the column of a {@link Primitive} type, see {@link #getPrimitive}
+     */
+    protected Object getValue(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+        final long value = getPrimitive(field, rs, index);
+        return rs.wasNull() ? null : field.getPrimitive().box(value);
+    }
+
+    /**
+     * Binds the value; by default the value of a {@link Primitive} type, see {@link #setPrimitive}
+     *
+     * @return what should be closed once the statement is executed, or null
+     */
+    protected Finalizer setValue(Metadata.Field field, PreparedStatement ps, int index, Object value) throws SQLException {
+        if (value == null)
+            setNull(field, ps, index);
+        else
+            setPrimitive(field, ps, index, field.getPrimitive().unbox(value));
         return null;
     }
 
-    abstract protected String getSchemaType(Metadata.Field field);
+    protected void setNull(Metadata.Field field, PreparedStatement ps, int index) throws SQLException {
+        ps.setNull(index, sqlType);
+    }
+
+    /**
+     * Reads a column of a {@link Primitive} type without boxing it
+     *
+     * @return the value, 0 if it is NULL; {@link ResultSet#wasNull()} tells which
+     */
+    protected long getPrimitive(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+        return field.getPrimitive().read(rs, index);
+    }
+
+    protected void setPrimitive(Metadata.Field field, PreparedStatement ps, int index, long value) throws SQLException {
+        field.getPrimitive().bind(ps, index, value);
+    }
+
+    /**
+     * @return whether the values can be bulk loaded as text, see {@link #format(Metadata.Field, Object)}
+     */
+    protected boolean isTextual() {
+        return true;
+    }
+
+    /**
+     * @return the non-null value as the text bulk loaders put into a column
+     */
+    protected String format(Metadata.Field field, Object value) {
+        return value.toString();
+    }
+
+    protected String formatPrimitive(Metadata.Field field, long value) {
+        return field.getPrimitive().format(value);
+    }
+
+    protected String getSchemaType(Metadata.Field field) {
+        return String.format(schemaType, field.getLength());
+    }
 
     abstract protected int getDBlength(Metadata.Field field);
 
 
+    static class UUID extends Adapter {
+        UUID(String schemaType) {
+            super(Types.BIGINT, schemaType);
+        }
+
+        protected Object getValue(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+            final long value = rs.getLong(index);
+            return rs.wasNull() ? null : new Identity(value);
+        }
+
+        protected Finalizer setValue(Metadata.Field field, PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setLong(index, ((Identity) value).longValue());
+            return null;
+        }
+
+        protected String format(Metadata.Field field, Object value) {
+            return Long.toString(((Identity) value).longValue());
+        }
+
+        public int getDBlength(Metadata.Field field) {
+            return 8;
+        }
+    }
+
     static class INT extends Adapter {
-        public String getSchemaType(Metadata.Field field) {
-            return "int";
+        INT(String schemaType) {
+            super(Types.INTEGER, schemaType);
         }
 
         public int getDBlength(Metadata.Field field) {
@@ -39,8 +138,8 @@ abstract class Adapter {
     }
 
     static class LONG extends Adapter {
-        public String getSchemaType(Metadata.Field field) {
-            return "bigint";
+        LONG(String schemaType) {
+            super(Types.BIGINT, schemaType);
         }
 
         public int getDBlength(Metadata.Field field) {
@@ -48,9 +147,57 @@ abstract class Adapter {
         }
     }
 
+    static class BOOL extends Adapter {
+        BOOL(String schemaType) {
+            super(Types.BIT, schemaType);
+        }
+
+        public int getDBlength(Metadata.Field field) {
+            return 1;
+        }
+    }
+
+    static class NUMERIC extends Adapter {
+        NUMERIC(String schemaType) {
+            super(Types.NUMERIC, schemaType);
+        }
+
+        protected Object getValue(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+            return rs.getBigDecimal(index);
+        }
+
+        protected Finalizer setValue(Metadata.Field field, PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null)
+                setNull(field, ps, index);
+            else
+                ps.setBigDecimal(index, value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString()));
+            return null;
+        }
+
+        public int getDBlength(Metadata.Field field) {
+            return 16;
+        }
+    }
+
     static class STR extends Adapter {
-        public String getSchemaType(Metadata.Field field) {
-            return String.format("varchar(%d)", field.getLength());
+        STR(String schemaType) {
+            this(Types.VARCHAR, schemaType);
+        }
+
+        protected STR(int sqlType, String schemaType) {
+            super(sqlType, schemaType);
+        }
+
+        protected Object getValue(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+            return rs.getString(index);
+        }
+
+        protected Finalizer setValue(Metadata.Field field, PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null)
+                setNull(field, ps, index);
+            else
+                ps.setString(index, (String) value);
+            return null;
         }
 
         public int getDBlength(Metadata.Field field) {
@@ -59,34 +206,268 @@ abstract class Adapter {
     }
 
     static class CHAR extends STR {
+        CHAR(String schemaType) {
+            super(Types.CHAR, schemaType);
+        }
     }
 
     static class VARCHAR extends STR {
+        VARCHAR(String schemaType) {
+            super(schemaType);
+        }
     }
 
-    static class LONGSTR extends Adapter {
-        public String getSchemaType(Metadata.Field field) {
-            return "ntext";
+    static class LONGSTR extends STR {
+        LONGSTR(String schemaType) {
+            super(Types.LONGVARCHAR, schemaType);
+        }
+    }
+
+    static class CODEREF extends Adapter {
+        CODEREF(String schemaType) {
+            super(Types.VARCHAR, schemaType);
         }
 
         public int getDBlength(Metadata.Field field) {
-            return field.getLength() * 2;
+            return 20;
         }
     }
 
-    static class CODEREF extends Adapter {
-        public String getSchemaType(Metadata.Field field) {
-            return "varchar(20)";
+    /**
+     * CODEREF stored as a small integer which a dictionary table maps to the id of the code object.
+     * Codes are given to ids as they are first written, by separate statements in autocommit mode, so that
+     * they survive a rollback of the transaction which needed them; other processes may give them as well.
+     */
+    static class CODES extends Adapter {
+        private final DB db;
+        private final String table;
+        /**
+         * code by ordinal, 0 if there is none yet
+         */
+        private volatile int[] codes = new int[0];
+        /**
+         * ordinal + 1 by code, 0 if the id of the code is unknown in this JVM
+         */
+        private volatile int[] ordinals = new int[0];
+
+        CODES(DB db, String table) {
+            super(Types.SMALLINT, "smallint");
+            this.db = db;
+            this.table = table;
+        }
+
+        String render() {
+            return String.format("CREATE TABLE %s (%n\tcode smallint NOT NULL PRIMARY KEY,%n\tobjectId varchar(20) NOT NULL UNIQUE%n)", table);
+        }
+
+        protected Object getValue(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+            final int code = rs.getInt(index);
+            return rs.wasNull() ? null : PS.getInstance().getCodeObject(decode(code));
+        }
+
+        protected Finalizer setValue(Metadata.Field field, PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null)
+                setNull(field, ps, index);
+            else
+                ps.setInt(index, encode((int) field.getPrimitive().unbox(value)));
+            return null;
+        }
+
+        protected long getPrimitive(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+            final int code = rs.getInt(index);
+            return rs.wasNull() ? 0 : decode(code);
+        }
+
+        protected void setPrimitive(Metadata.Field field, PreparedStatement ps, int index, long value) throws SQLException {
+            ps.setInt(index, encode((int) value));
+        }
+
+        protected String format(Metadata.Field field, Object value) {
+            return formatPrimitive(field, field.getPrimitive().unbox(value));
+        }
+
+        protected String formatPrimitive(Metadata.Field field, long value) {
+            try {
+                return Integer.toString(encode((int) value));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private int decode(int code) throws SQLException {
+            int[] ordinals = this.ordinals;
+            if (code <= 0 || code >= ordinals.length || ordinals[code] == 0) {
+                refresh();
+                ordinals = this.ordinals;
+                if (code <= 0 || code >= ordinals.length || ordinals[code] == 0)
+                    throw new SQLException("unknown code " + code + " in " + table);
+            }
+            return ordinals[code] - 1;
+        }
+
+        private int encode(int ordinal) throws SQLException {
+            final int[] codes = this.codes;
+            return ordinal < codes.length && codes[ordinal] != 0 ? codes[ordinal] : assign(ordinal);
+        }
+
+        private synchronized int assign(int ordinal) throws SQLException {
+            final String id = PS.getInstance().getCodeObject(ordinal).getObjectId();
+            for (int attempt = 0; ; attempt++) {
+                refresh();
+                if (ordinal < codes.length && codes[ordinal] != 0)
+                    return codes[ordinal];
+                final int code = Math.max(ordinals.length, 1);
+                final Connection connection = db.getConnection();
+                try {
+                    final PreparedStatement ps = connection.prepareStatement(String.format("INSERT INTO %s (code, objectId) VALUES (?, ?)", table));
+                    try {
+                        ps.setInt(1, code);
+                        ps.setString(2, id);
+                        ps.executeUpdate();
+                    } finally {
+                        ps.close();
+                    }
+                } catch (SQLException e) {
+                    // another process took the code or gave one to the id meanwhile
+                    if (attempt >= 3)
+                        throw e;
+                } finally {
+                    connection.close();
+                }
+            }
+        }
+
+        private synchronized void refresh() throws SQLException {
+            final Map<Integer, CodeObject> known = new HashMap<Integer, CodeObject>();
+            int max = 0;
+            final Connection connection = db.getConnection();
+            try {
+                final Statement statement = connection.createStatement();
+                try {
+                    final ResultSet rs = statement.executeQuery(String.format("SELECT code, objectId FROM %s", table));
+                    while (rs.next()) {
+                        final int code = rs.getInt(1);
+                        max = Math.max(max, code);
+                        final CodeObject obj = PS.getInstance().getCodeObject(rs.getString(2));
+                        if (obj != null)
+                            known.put(code, obj);
+                    }
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                connection.close();
+            }
+            final int[] ordinals = new int[max + 1];
+            int[] codes = new int[0];
+            for (Map.Entry<Integer, CodeObject> entry : known.entrySet()) {
+                final int ordinal = entry.getValue().getOrdinal();
+                ordinals[entry.getKey()] = ordinal + 1;
+                if (ordinal >= codes.length)
+                    codes = Arrays.copyOf(codes, Math.max(ordinal + 1, codes.length * 2));
+                codes[ordinal] = entry.getKey();
+            }
+            this.codes = codes;
+            this.ordinals = ordinals;
         }
 
         public int getDBlength(Metadata.Field field) {
-            return 20;
+            return 2;
         }
     }
 
+    /**
+     * Values are read into temporary files, which live as long as their {@link File} objects: a file is deleted once
+     * its File is unreachable, or at exit
+     */
     static class IMAGE extends Adapter {
-        public String getSchemaType(Metadata.Field field) {
-            return "OID";
+        private static final ReferenceQueue<File> unreachable = new ReferenceQueue<File>();
+        private static final Set<Spooled> spooled = Collections.newSetFromMap(new ConcurrentHashMap<Spooled, Boolean>());
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread("better-sql image cleanup") {
+                public void run() {
+                    for (Spooled file : spooled)
+                        file.delete();
+                }
+            });
+        }
+
+        IMAGE(String schemaType) {
+            super(Types.LONGVARBINARY, schemaType);
+        }
+
+        protected Object getValue(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+            for (java.lang.ref.Reference<? extends File> reference; (reference = unreachable.poll()) != null; )
+                ((Spooled) reference).delete();
+            final InputStream stream = rs.getBinaryStream(index);
+            if (stream == null)
+                return null;
+            try {
+                final File file = File.createTempFile("image", null);
+                boolean copied = false;
+                try {
+                    final OutputStream out = new FileOutputStream(file);
+                    try {
+                        final byte[] buffer = new byte[8192];
+                        for (int n; (n = stream.read(buffer)) > 0; )
+                            out.write(buffer, 0, n);
+                    } finally {
+                        out.close();
+                    }
+                    copied = true;
+                } finally {
+                    stream.close();
+                    if (!copied)
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                }
+                spooled.add(new Spooled(file));
+                return file;
+            } catch (IOException e) {
+                throw new SQLException(e.getMessage(), e);
+            }
+        }
+
+        protected Finalizer setValue(Metadata.Field field, PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null) {
+                setNull(field, ps, index);
+                return null;
+            }
+            final File file = (File) value;
+            try {
+                final FileInputStream stream = new FileInputStream(file);
+                ps.setBinaryStream(index, stream, file.length());
+                return new Finalizer() {
+                    public void close() {
+                        try {
+                            stream.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                };
+            } catch (IOException e) {
+                throw new SQLException(e.getMessage(), e);
+            }
+        }
+
+        protected boolean isTextual() {
+            return false;
+        }
+
+        private static class Spooled extends PhantomReference<File> {
+            private final String path;
+
+            Spooled(File file) {
+                super(file, unreachable);
+                path = file.getPath();
+            }
+
+            void delete() {
+                spooled.remove(this);
+                //noinspection ResultOfMethodCallIgnored
+                new File(path).delete();
+            }
         }
 
         public int getDBlength(Metadata.Field field) {
@@ -95,8 +476,25 @@ abstract class Adapter {
     }
 
     static class REF extends Adapter {
-        public String getSchemaType(Metadata.Field field) {
-            return "int8";
+        REF(String schemaType) {
+            super(Types.BIGINT, schemaType);
+        }
+
+        protected Object getValue(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+            final long value = rs.getLong(index);
+            return rs.wasNull() ? null : new Reference(value);
+        }
+
+        protected Finalizer setValue(Metadata.Field field, PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null)
+                setNull(field, ps, index);
+            else
+                ps.setLong(index, ((Reference) value).getIdentity().longValue());
+            return null;
+        }
+
+        protected String format(Metadata.Field field, Object value) {
+            return Long.toString(((Reference) value).getIdentity().longValue());
         }
 
         public int getDBlength(Metadata.Field field) {
@@ -105,8 +503,52 @@ abstract class Adapter {
     }
 
     static class DATE extends Adapter {
-        public String getSchemaType(Metadata.Field field) {
-            return "date";
+        DATE(String schemaType) {
+            super(Types.DATE, schemaType);
+        }
+
+        public int getDBlength(Metadata.Field field) {
+            return 8;
+        }
+    }
+
+    static class TIME extends Adapter {
+        TIME(String schemaType) {
+            super(Types.TIME, schemaType);
+        }
+
+        protected Object getValue(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+            return rs.getTime(index);
+        }
+
+        protected Finalizer setValue(Metadata.Field field, PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null)
+                setNull(field, ps, index);
+            else
+                ps.setTime(index, (Time) value);
+            return null;
+        }
+
+        public int getDBlength(Metadata.Field field) {
+            return 8;
+        }
+    }
+
+    static class TIMESTAMP extends Adapter {
+        TIMESTAMP(String schemaType) {
+            super(Types.TIMESTAMP, schemaType);
+        }
+
+        protected Object getValue(Metadata.Field field, ResultSet rs, int index) throws SQLException {
+            return rs.getTimestamp(index);
+        }
+
+        protected Finalizer setValue(Metadata.Field field, PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null)
+                setNull(field, ps, index);
+            else
+                ps.setTimestamp(index, (Timestamp) value);
+            return null;
         }
 
         public int getDBlength(Metadata.Field field) {
@@ -0,0 +1,556 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates rows per {@link Metadata.Table} and sends them with {@link PreparedStatement#executeBatch()}.
+ * <p>
+ * {@link #open(DB)} makes the batch current for the calling thread, so that {@link OBJ#save()} and
+ * {@link Reference#sync()} enlist into it; {@link #close()} flushes the rest and restores the previous one.
+ *
+ * @author shr
+ * @since Oct 17, 2026 10:12:40 AM
+ */
+public class Batch implements AutoCloseable {
+    private static final ThreadLocal<Batch> current = new ThreadLocal<Batch>();
+
+    private final Batch outer;
+    private final int size;
+    private final Connection connection;
+    private final Statements statements;
+    private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+    private final Map<OBJ, ObjectWrite> queued = new IdentityHashMap<OBJ, ObjectWrite>();
+    private final Map<RowBatch<?>, BitSet> queuedRows = new IdentityHashMap<RowBatch<?>, BitSet>();
+    private final List<Cache> staleCaches = new ArrayList<Cache>();
+    private final List<Long> staleIds = new ArrayList<Long>();
+    private boolean transaction;
+    /**
+     * whether an object of several levels is pending, see {@link #flush()}
+     */
+    private boolean joined;
+    /**
+     * writes executed by a flush which is not committed yet, or null
+     */
+    private List<Write> executed;
+
+    private Batch(DB db, int size, Batch outer) throws SQLException {
+        this.size = size;
+        this.outer = outer;
+        connection = db.getConnection();
+        statements = Statements.of(connection);
+    }
+
+    public static Batch open(DB db) throws SQLException {
+        return open(db, db.getBatchSize());
+    }
+
+    public static Batch open(DB db, int size) throws SQLException {
+        if (size < 1)
+            throw new IllegalArgumentException("batch size should be > 0");
+        final Batch batch = new Batch(db, size, current.get());
+        current.set(batch);
+        return batch;
+    }
+
+    /**
+     * @return a batch which is not current and sends all its rows within one transaction, see {@link #commit()} and {@link #rollback()}
+     */
+    static Batch transaction(DB db, int size) throws SQLException {
+        final Batch batch = new Batch(db, size, null);
+        try {
+            batch.connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            batch.connection.close();
+            throw e;
+        }
+        batch.transaction = true;
+        return batch;
+    }
+
+    static void save(OBJ obj) throws SQLException {
+        final UnitOfWork work = UnitOfWork.current();
+        if (work != null) {
+            work.add(obj);
+            return;
+        }
+        final Batch batch = current.get();
+        if (batch != null) {
+            batch.add(obj);
+        } else {
+            final Batch single = new Batch(obj.getTable().getMetadata().getDB(), 1, null);
+            try {
+                single.add(obj);
+            } finally {
+                single.release();
+            }
+        }
+    }
+
+    /**
+     * Queues INSERT of a new object or UPDATE of the dirty columns of a persistent one;
+     * the statements are executed as soon as any of them collects {@code size} rows. The object becomes persistent
+     * and clean once its statements are executed; should they fail, it stays as it was.
+     */
+    public void add(OBJ obj) throws SQLException {
+        final ObjectWrite write = queued.get(obj);
+        if (write != null) {
+            if (obj.getModifications() == write.modifications)
+                return;
+            flush();
+        }
+        final Metadata.Table table = obj.getTable();
+        if (obj.getUuid().get() == null)
+            obj.getUuid().set(new Identity(table.getId()));
+        final Metadata.Field[] fields = table.getFields();
+        final BitSet dirty = BitSet.valueOf(obj.getDirty());
+        dirty.clear(table.getUuid().getIndex());
+        final boolean update = obj.isPersistent();
+        if (update && dirty.isEmpty())
+            return;
+        final ObjectWrite queue = new ObjectWrite(obj, update);
+        // queued before its targets are saved, since they may refer back to it
+        queued.put(obj, queue);
+        boolean synced = false;
+        try {
+            for (Metadata.Field field : fields)
+                if (field.getSlot() < 0) {
+                    final Object value = obj.getValue(field);
+                    if (value instanceof Reference)
+                        ((Reference) value).getIdentity();
+                }
+            // again, since a flush caused by a target forgets it
+            queued.put(obj, queue);
+            synced = true;
+        } finally {
+            if (!synced)
+                queued.remove(obj);
+        }
+        boolean full = false;
+        for (Metadata.Table level : table.getLevels()) {
+            final Pending statement;
+            int parameter = 0;
+            if (update) {
+                final BitSet columns = (BitSet) level.getStoredColumns().clone();
+                columns.and(dirty);
+                if (columns.isEmpty())
+                    continue;
+                statement = statement(level, Statements.Operation.UPDATE, columns);
+                for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1))
+                    statement.bind(obj, fields[i], ++parameter);
+                statement.bind(obj, table.getUuid(), ++parameter);
+            } else {
+                final BitSet columns = level.getStoredColumns();
+                statement = statement(level, Statements.Operation.INSERT, columns);
+                for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1))
+                    statement.bind(obj, fields[i], ++parameter);
+            }
+            statement.ps.addBatch();
+            statement.invalidate(table.getCache(), obj);
+            statement.writes.add(queue);
+            queue.remaining++;
+            full |= ++statement.rows >= size;
+        }
+        if (queue.remaining == 0) {
+            queued.remove(obj);
+            queue.written();
+        }
+        joined |= queue.remaining > 1;
+        if (full)
+            flush();
+    }
+
+    /**
+     * Queues INSERT of every row which is neither persistent nor queued yet, assigning identities to those without
+     * one; the rows become persistent once their statements are executed. Persistent rows are skipped, since a batch
+     * does not track changes.
+     */
+    public void add(RowBatch<?> rows) throws SQLException {
+        final Metadata.Table table = rows.getTable();
+        final Metadata.Field[] fields = table.getFields();
+        final Metadata.Field uuid = table.getUuid();
+        BitSet queued = queuedRows.get(rows);
+        if (queued == null)
+            queuedRows.put(rows, queued = new BitSet());
+        for (int row = 0; row < rows.size(); row++) {
+            if (rows.isPersistent(row) || queued.get(row))
+                continue;
+            if (rows.getValue(row, uuid) == null)
+                rows.setValue(row, uuid, new Identity(table.getId()));
+            for (Metadata.Field field : fields)
+                if (field.getSlot() < 0) {
+                    final Object value = rows.getValue(row, field);
+                    if (value instanceof Reference)
+                        ((Reference) value).getIdentity();
+                }
+            final Write write = new RowWrite(rows, row);
+            boolean full = false;
+            for (Metadata.Table level : table.getLevels()) {
+                final BitSet columns = level.getStoredColumns();
+                final Pending statement = statement(level, Statements.Operation.INSERT, columns);
+                int parameter = 0;
+                for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1))
+                    statement.bind(rows, row, fields[i], ++parameter);
+                statement.ps.addBatch();
+                statement.writes.add(write);
+                write.remaining++;
+                full |= ++statement.rows >= size;
+            }
+            queued.set(row);
+            joined |= write.remaining > 1;
+            if (full) {
+                flush();
+                if ((queued = queuedRows.get(rows)) == null)
+                    queuedRows.put(rows, queued = new BitSet());
+            }
+        }
+    }
+
+    private Pending statement(Metadata.Table table, Statements.Operation operation, BitSet columns) throws SQLException {
+        final String sql = table.getSql(operation, columns);
+        Pending statement = pending.get(sql);
+        if (statement == null)
+            pending.put(sql, statement = new Pending(this, statements.prepare(table, operation, columns)));
+        return statement;
+    }
+
+    /**
+     * Executes all pending statements in the order they were first used. Should one fail, the rows queued in it and
+     * in those after it are dropped and their objects stay as they were, so that saving them again retries.
+     * <p>
+     * An object of a JOINED hierarchy is written by a statement per level, so a batch which is not a
+     * {@link #transaction(DB, int) transaction} executes them within one of its own: either all levels of its
+     * objects are written, or none, and the objects are marked only once it is committed.
+     */
+    public void flush() throws SQLException {
+        final boolean atomic = joined && !transaction;
+        joined = false;
+        if (atomic) {
+            connection.setAutoCommit(false);
+            executed = new ArrayList<Write>();
+        }
+        boolean done = false;
+        try {
+            for (Pending statement : pending.values())
+                statement.execute();
+            if (atomic)
+                connection.commit();
+            done = true;
+        } finally {
+            try {
+                if (!done)
+                    try {
+                        for (Pending statement : pending.values())
+                            statement.drop();
+                    } finally {
+                        if (atomic)
+                            connection.rollback();
+                    }
+            } finally {
+                queued.clear();
+                queuedRows.clear();
+                if (atomic)
+                    settle(done);
+            }
+        }
+    }
+
+    /**
+     * Ends the transaction of a flush: marks its writes if it is committed, and drops its rows from the caches
+     */
+    private void settle(boolean committed) throws SQLException {
+        final List<Write> executed = this.executed;
+        this.executed = null;
+        try {
+            connection.setAutoCommit(true);
+        } finally {
+            if (committed)
+                for (Write write : executed)
+                    write.executed();
+            invalidateStale();
+        }
+    }
+
+    private void invalidateStale() {
+        for (int i = 0; i < staleIds.size(); i++)
+            staleCaches.get(i).invalidate(staleIds.get(i));
+        staleCaches.clear();
+        staleIds.clear();
+    }
+
+    public void close() throws SQLException {
+        if (current.get() != this)
+            throw new IllegalStateException("batch is not current");
+        try {
+            release();
+        } finally {
+            if (outer == null)
+                current.remove();
+            else
+                current.set(outer);
+        }
+    }
+
+    /**
+     * Flushes the rest and commits the transaction of a {@link #transaction(DB, int)} batch, or rolls it back if anything
+     * fails; the batch is released either way, and only then are the written rows dropped from the caches
+     */
+    void commit() throws SQLException {
+        boolean committed = false;
+        try {
+            flush();
+            connection.commit();
+            committed = true;
+        } finally {
+            try {
+                if (!committed)
+                    connection.rollback();
+            } finally {
+                discard();
+            }
+        }
+    }
+
+    /**
+     * Drops what is pending and rolls back the transaction of a {@link #transaction(DB, int)} batch, then releases it
+     */
+    void rollback() throws SQLException {
+        try {
+            connection.rollback();
+        } finally {
+            discard();
+        }
+    }
+
+    private void release() throws SQLException {
+        try {
+            flush();
+        } finally {
+            discard();
+        }
+    }
+
+    private void discard() throws SQLException {
+        try {
+            for (Pending statement : pending.values())
+                statement.close();
+            pending.clear();
+            queued.clear();
+            queuedRows.clear();
+        } finally {
+            invalidateStale();
+            try {
+                if (transaction)
+                    connection.setAutoCommit(true);
+            } finally {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Write of an object or a row, queued in a statement per level of its table
+     */
+    private abstract static class Write {
+        int remaining;
+
+        /**
+         * called once the statement of a level is executed
+         */
+        void executed() {
+            if (--remaining == 0)
+                written();
+        }
+
+        /**
+         * marks the object or the row written, once the statements of all its levels are executed
+         */
+        abstract void written();
+    }
+
+    private static class ObjectWrite extends Write {
+        private final OBJ obj;
+        private final boolean update;
+        private final int modifications;
+
+        private ObjectWrite(OBJ obj, boolean update) {
+            this.obj = obj;
+            this.update = update;
+            modifications = obj.getModifications();
+        }
+
+        /**
+         * the columns changed after the object was queued stay dirty
+         */
+        void written() {
+            if (!update) {
+                obj.setPersistent();
+                obj.setRead();
+                final Session session = Session.current();
+                if (session != null)
+                    session.put(obj);
+            }
+            if (obj.getModifications() == modifications)
+                obj.clean();
+        }
+    }
+
+    private static class RowWrite extends Write {
+        private final RowBatch<?> rows;
+        private final int row;
+
+        private RowWrite(RowBatch<?> rows, int row) {
+            this.rows = rows;
+            this.row = row;
+        }
+
+        void written() {
+            rows.setPersistent(row, true);
+        }
+    }
+
+    private static class Pending {
+        private final Batch batch;
+        private final Statements.Lease lease;
+        private final PreparedStatement ps;
+        private final List<Write> writes = new ArrayList<Write>();
+        private final List<Finalizer> finalizers = new ArrayList<Finalizer>();
+        private final List<Cache> caches = new ArrayList<Cache>();
+        private final List<Long> ids = new ArrayList<Long>();
+        private int rows;
+
+        private Pending(Batch batch, Statements.Lease lease) {
+            this.batch = batch;
+            this.lease = lease;
+            ps = lease.getStatement();
+        }
+
+        /**
+         * drops the row from the cache now and once more after execution, since a concurrent load may have
+         * cached its old values in between; the statement of a level of a joined hierarchy writes rows of
+         * several classes, each with a cache of its own; within a transaction the second drop waits until the
+         * transaction ends, since a load may cache the old values until it is committed or rolled back
+         */
+        void invalidate(Cache cache, OBJ obj) {
+            if (cache != null) {
+                final long id = obj.getUuid().get().longValue();
+                cache.invalidate(id);
+                caches.add(cache);
+                ids.add(id);
+            }
+        }
+
+        private void invalidate() {
+            if (batch.transaction || batch.executed != null) {
+                batch.staleCaches.addAll(caches);
+                batch.staleIds.addAll(ids);
+                return;
+            }
+            for (int i = 0; i < ids.size(); i++)
+                caches.get(i).invalidate(ids.get(i));
+        }
+
+        void bind(RowBatch<?> rows, int row, Metadata.Field field, int parameter) throws SQLException {
+            if (field.getSlot() >= 0) {
+                if (rows.isNull(row, field))
+                    field.getAdapter().setNull(field, ps, parameter);
+                else
+                    field.getAdapter().setPrimitive(field, ps, parameter, rows.getPrimitive(row, field));
+                return;
+            }
+            final Finalizer finalizer = field.getAdapter().setValue(field, ps, parameter, rows.getValue(row, field));
+            if (finalizer != null)
+                finalizers.add(finalizer);
+        }
+
+        void bind(OBJ obj, Metadata.Field field, int parameter) throws SQLException {
+            if (field.getSlot() >= 0) {
+                if (obj.isNull(field))
+                    field.getAdapter().setNull(field, ps, parameter);
+                else
+                    field.getAdapter().setPrimitive(field, ps, parameter, obj.getPrimitive(field));
+                return;
+            }
+            final Finalizer finalizer = field.getAdapter().setValue(field, ps, parameter, obj.getValue(field));
+            if (finalizer != null)
+                finalizers.add(finalizer);
+        }
+
+        void execute() throws SQLException {
+            if (rows == 0)
+                return;
+            try {
+                ps.executeBatch();
+                for (Write write : writes)
+                    executed(write);
+            } catch (BatchUpdateException e) {
+                // the driver may go on after a failed row and tell which ones were written
+                final int[] counts = e.getUpdateCounts();
+                for (int i = 0; counts != null && i < counts.length && i < writes.size(); i++)
+                    if (counts[i] != Statement.EXECUTE_FAILED)
+                        executed(writes.get(i));
+                throw e;
+            } finally {
+                rows = 0;
+                writes.clear();
+                for (Finalizer finalizer : finalizers)
+                    finalizer.close();
+                finalizers.clear();
+                invalidate();
+                caches.clear();
+                ids.clear();
+            }
+        }
+
+        /**
+         * marks the write now, or once the transaction of the flush is committed
+         */
+        private void executed(Write write) {
+            if (batch.executed != null)
+                batch.executed.add(write);
+            else
+                write.executed();
+        }
+
+        /**
+         * forgets the rows which were not executed
+         */
+        void drop() throws SQLException {
+            try {
+                if (rows > 0)
+                    ps.clearBatch();
+            } finally {
+                rows = 0;
+                writes.clear();
+                for (Finalizer finalizer : finalizers)
+                    finalizer.close();
+                finalizers.clear();
+                invalidate();
+                caches.clear();
+                ids.clear();
+            }
+        }
+
+        void close() throws SQLException {
+            for (Finalizer finalizer : finalizers)
+                finalizer.close();
+            if (rows > 0)
+                ps.clearBatch();
+            invalidate();
+            lease.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Keeps hydrated rows of the table in the process-wide {@link Cache}
+ *
+ * @author shr
+ * @since Oct 17, 2026 6:40:12 PM
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface CACHE {
+    /**
+     * @return max number of rows
+     */
+    int size() default 10000;
+
+    /**
+     * @return seconds a row stays valid, 0 for no limit
+     */
+    long ttl() default 0;
+
+    Cache.Policy policy() default Cache.Policy.TINY_LFU;
+}
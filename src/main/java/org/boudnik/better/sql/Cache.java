@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared cache of the rows of one {@link CACHE cached} table. It holds copies of the column values keyed by raw
+ * {@link Identity}, never live objects, so every hit hydrates a new object.
+ * <p>
+ * Rows are spread over independently locked segments, each bounded by its share of {@link CACHE#size()} and kept
+ * in access order. With {@link Policy#TINY_LFU} a new row replaces the least recently used one only if a
+ * frequency sketch has seen it more often, so one-off scans do not flush the rows which are read all the time.
+ * <p>
+ * A reader takes the {@link #stamp(long)} of the row before it selects it and puts the row with it; every
+ * {@link #invalidate(long)} changes the stamp, so the values of a reader which raced a write are not cached.
+ *
+ * @author shr
+ * @since Oct 17, 2026 6:44:37 PM
+ */
+public class Cache {
+    public enum Policy {
+        LRU, TINY_LFU
+    }
+
+    private static final int STRIPES = 256;
+
+    private final Segment[] segments;
+    private final long ttl;
+    private final Policy policy;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    Cache(CACHE config) {
+        this(config.size(), config.ttl(), TimeUnit.SECONDS, config.policy());
+    }
+
+    Cache(int size, long ttl, TimeUnit unit, Policy policy) {
+        if (size < 1)
+            throw new IllegalArgumentException("cache size should be > 0");
+        this.ttl = unit.toNanos(ttl);
+        this.policy = policy;
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() * 4 && n * 64 <= size)
+            n <<= 1;
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++)
+            segments[i] = new Segment((size + n - 1) / n);
+    }
+
+    /**
+     * @return copy of the cached values, or null
+     */
+    Object[] get(long id) {
+        final Object[] values = segment(id).get(id);
+        (values == null ? misses : hits).incrementAndGet();
+        return values == null ? null : values.clone();
+    }
+
+    /**
+     * @return generation of the row, to be passed to {@link #put(long, long, Object[])} of the values selected after it
+     */
+    long stamp(long id) {
+        return segment(id).stamp(id);
+    }
+
+    /**
+     * caches the values unless the row was invalidated since the stamp was taken
+     */
+    void put(long id, long stamp, Object[] values) {
+        segment(id).put(id, stamp, values.clone());
+    }
+
+    void invalidate(long id) {
+        segment(id).remove(id);
+    }
+
+    public void clear() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments)
+            size += segment.size();
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of rows not admitted by {@link Policy#TINY_LFU}
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public String toString() {
+        return String.format("%s size=%d hits=%d misses=%d evictions=%d rejections=%d", policy, size(), getHits(), getMisses(), getEvictions(), getRejections());
+    }
+
+    private Segment segment(long id) {
+        final long h = id * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h >>> 40) & (segments.length - 1)];
+    }
+
+    private static int stripe(long id) {
+        final long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 16) & (STRIPES - 1);
+    }
+
+    private static class Entry {
+        private final Object[] values;
+        private final long expires;
+
+        private Entry(Object[] values, long expires) {
+            this.values = values;
+            this.expires = expires;
+        }
+    }
+
+    private class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * generations of the rows, striped by id; invalidation of a row also refuses the racing puts of the others
+         * of its stripe, which only costs them a miss
+         */
+        private final long[] stamps = new long[STRIPES];
+        private final LinkedHashMap<Long, Entry> entries;
+        private final Sketch sketch;
+        private final int capacity;
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+            entries = new LinkedHashMap<Long, Entry>(Math.min(capacity, 1024), 0.75f, true);
+            sketch = policy == Policy.TINY_LFU ? new Sketch(capacity) : null;
+        }
+
+        Object[] get(long id) {
+            lock.lock();
+            try {
+                if (sketch != null)
+                    sketch.increment(id);
+                final Entry entry = entries.get(id);
+                if (entry == null)
+                    return null;
+                if (ttl > 0 && entry.expires - System.nanoTime() < 0) {
+                    entries.remove(id);
+                    return null;
+                }
+                return entry.values;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long stamp(long id) {
+            lock.lock();
+            try {
+                return stamps[stripe(id)];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(long id, long stamp, Object[] values) {
+            lock.lock();
+            try {
+                if (stamps[stripe(id)] != stamp)
+                    return;
+                final Entry entry = new Entry(values, ttl > 0 ? System.nanoTime() + ttl : 0);
+                if (entries.containsKey(id) || entries.size() < capacity) {
+                    entries.put(id, entry);
+                    return;
+                }
+                final Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+                final Map.Entry<Long, Entry> victim = eldest.next();
+                if (sketch != null && sketch.frequency(id) <= sketch.frequency(victim.getKey())
+                        && (ttl == 0 || victim.getValue().expires - System.nanoTime() >= 0)) {
+                    rejections.incrementAndGet();
+                    return;
+                }
+                eldest.remove();
+                evictions.incrementAndGet();
+                entries.put(id, entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(long id) {
+            lock.lock();
+            try {
+                stamps[stripe(id)]++;
+                entries.remove(id);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                for (int i = 0; i < stamps.length; i++)
+                    stamps[i]++;
+                entries.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters; all counters are halved once it has counted ten times its capacity,
+     * so the frequencies reflect recent history
+     */
+    private static class Sketch {
+        private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+        private final long[] table;
+        private final int mask;
+        private final int limit;
+        private int additions;
+
+        private Sketch(int capacity) {
+            int width = 64;
+            while (width < capacity)
+                width <<= 1;
+            table = new long[width / 4];
+            mask = width - 1;
+            limit = capacity * 10;
+        }
+
+        void increment(long id) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                final int counter = index(id, i);
+                final int word = counter >>> 4;
+                final int shift = (counter & 15) << 2;
+                if (((table[word] >>> shift) & 0xf) < 15) {
+                    table[word] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= limit)
+                age();
+        }
+
+        int frequency(long id) {
+            int min = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                final int counter = index(id, i);
+                min = Math.min(min, (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xf));
+            }
+            return min;
+        }
+
+        private int index(long id, int i) {
+            final long h = (id + SEEDS[i]) * SEEDS[(i + 1) & 3];
+            return (int) (h ^ (h >>> 29)) & (mask << 4 | 15) & (table.length * 16 - 1);
+        }
+
+        private void age() {
+            for (int i = 0; i < table.length; i++)
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            additions /= 2;
+        }
+    }
+}
@@ -5,21 +5,33 @@
 package org.boudnik.better.sql;
 
 /**
+ * Constant of a code table, e.g. a gender or a status, referred to by {@link OBJ.CODEREF} columns.
+ * There is one instance per id, so instances compare by identity.
+ *
  * @author shr
  * @since Nov 21, 2005 11:41:34 PM
  */
 public abstract class CodeObject implements Comparable<CodeObject> {
     private final String objectId;
+    private final int ordinal;
 
     protected CodeObject(String objectId) {
         this.objectId = objectId;
-        PS.getInstance().storeCodeObject(this);
+        ordinal = PS.getInstance().storeCodeObject(this);
     }
 
     public String getObjectId() {
         return objectId;
     }
 
+    /**
+     * @return dense number of the object within the running JVM, in the order code objects were constructed;
+     * it is not meant to be persisted
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
     public int compareTo(CodeObject o) {
         return objectId.compareTo(o.objectId);
     }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.sql.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy iteration over a {@link ResultSet}, hydrating one {@link OBJ} per row; rows are never buffered
+ * beyond what the driver fetches ({@link #open(Metadata.Table, int, String, Object...) fetch size}).
+ * <p>
+ * The cursor closes its result set, statement and connection when it is exhausted, when {@link #close()} is called,
+ * or when the {@link #stream() stream} is closed.
+ *
+ * @author shr
+ * @since Oct 17, 2026 2:31:17 PM
+ */
+public class Cursor<T extends OBJ> implements Iterator<T>, AutoCloseable {
+    private final Metadata.Table.Hydrator hydrator;
+    private final ResultSet rs;
+    private final Statement statement;
+    private final Connection connection;
+    private Boolean ahead;
+    private boolean closed;
+    private Group group;
+
+    private Cursor(Metadata.Table.Hydrator hydrator, ResultSet rs, Statement statement, Connection connection) {
+        this.hydrator = hydrator;
+        this.rs = rs;
+        this.statement = statement;
+        this.connection = connection;
+    }
+
+    /**
+     * Selects all but {@link DEFERRED} columns of the table
+     */
+    public static <T extends OBJ> Cursor<T> open(Metadata.Table table, String where, Object... parameters) throws SQLException {
+        return open(table, table.getMetadata().getDB().getFetchSize(), where, parameters);
+    }
+
+    /**
+     * Selects all but {@link DEFERRED} columns of the table; those are fetched on first access,
+     * for up to {@link Group#CHUNK} objects of the cursor at once
+     *
+     * @param fetchSize number of rows the driver should fetch per round trip, 0 for the driver default
+     * @param where     condition with {@code ?} placeholders for {@code parameters}, or null to read the whole table
+     */
+    public static <T extends OBJ> Cursor<T> open(Metadata.Table table, int fetchSize, String where, Object... parameters) throws SQLException {
+        final BitSet selected = table.getEager();
+        final String sql = String.format("SELECT %s FROM %s%s", table.getColumnList(selected, ""),
+                table.getSource(where == null ? selected : table.getColumns(), false), where == null ? "" : " WHERE " + where);
+        return open(table, fetchSize, sql, new Metadata.Field[parameters.length], parameters);
+    }
+
+    /**
+     * @param sql    selects {@link Metadata.Table#getEager() eager} columns of the table
+     * @param fields columns the parameters are bound as through their {@link Adapter}; null to bind as is
+     */
+    static <T extends OBJ> Cursor<T> open(Metadata.Table table, int fetchSize, String sql, Metadata.Field[] fields, Object[] parameters) throws SQLException {
+        final DB db = table.getMetadata().getDB();
+        final Connection connection = db.getConnection();
+        PreparedStatement ps = null;
+        try {
+            db.prepareForStreaming(connection);
+            ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            bind(ps, fields, parameters);
+            return new Cursor<T>(table.getHydrator(table.getEager()), ps.executeQuery(), ps, connection);
+        } catch (SQLException e) {
+            if (ps != null)
+                ps.close();
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param fields columns the parameters are bound as through their {@link Adapter}; null to bind as is
+     */
+    static void bind(PreparedStatement ps, Metadata.Field[] fields, Object[] parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++)
+            if (fields[i] == null)
+                ps.setObject(i + 1, parameters[i]);
+            else
+                fields[i].getAdapter().setValue(fields[i], ps, i + 1, parameters[i]);
+    }
+
+    /**
+     * Hydrates the rows of a result set opened by the caller, matching its columns to the fields by name;
+     * the result set is closed with the cursor, its statement and connection are not
+     */
+    public static <T extends OBJ> Cursor<T> of(Metadata.Table table, ResultSet rs) throws SQLException {
+        final ResultSetMetaData md = rs.getMetaData();
+        final List<Metadata.Field> columns = new ArrayList<Metadata.Field>();
+        final int[] positions = new int[md.getColumnCount()];
+        for (int i = 1; i <= md.getColumnCount(); i++) {
+            for (Metadata.Field field : table.getFields())
+                if (field.getName().equalsIgnoreCase(md.getColumnLabel(i))) {
+                    positions[columns.size()] = i;
+                    columns.add(field);
+                    break;
+                }
+        }
+        return new Cursor<T>(table.new Hydrator(columns.toArray(new Metadata.Field[columns.size()]), Arrays.copyOf(positions, columns.size())), rs, null, null);
+    }
+
+    public boolean hasNext() {
+        if (ahead == null) {
+            try {
+                ahead = !closed && rs.next();
+                if (!ahead)
+                    close();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return ahead;
+    }
+
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        ahead = null;
+        try {
+            final OBJ obj = hydrator.read(rs);
+            if (group == null || group.size() >= Group.CHUNK)
+                group = new Group(hydrator.getTable());
+            group.add(obj);
+            //noinspection unchecked
+            return (T) obj;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Appends up to {@code max} of the next rows to the batch without creating objects for them; the session is
+     * not consulted
+     *
+     * @return number of rows appended, 0 at the end
+     */
+    public int fill(RowBatch<T> rows, int max) throws SQLException {
+        if (rows.getTable() != hydrator.getTable())
+            throw new IllegalArgumentException(rows.getTable().getName() + " is not " + hydrator.getTable().getName());
+        int n = 0;
+        for (; n < max && hasNext(); n++) {
+            ahead = null;
+            hydrator.read(rs, rows);
+        }
+        return n;
+    }
+
+    /**
+     * @return sequential stream over the rest of the rows, which closes the cursor when closed itself
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(new Runnable() {
+            public void run() {
+                try {
+                    close();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    public void close() throws SQLException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            rs.close();
+        } finally {
+            try {
+                if (statement != null)
+                    statement.close();
+            } finally {
+                if (connection != null)
+                    connection.close();
+            }
+        }
+    }
+}
@@ -8,10 +8,13 @@ import java.net.InetAddress;
 import java.net.PasswordAuthentication;
 import java.net.UnknownHostException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
 
 /**
  * @author Alexandre Boudnik (BoudnikA)
@@ -26,7 +29,14 @@ public abstract class DB {
     protected String server;
     protected String database;
     protected PasswordAuthentication authentication;
-    private Connection connection;
+    private Pool pool;
+    private int batchSize = 1000;
+    private int statementCacheSize = 64;
+    private int fetchSize = 1000;
+    private volatile Executor executor;
+    private int concurrency = 10;
+    private final Pool.Permits running = new Pool.Permits(concurrency);
+    private final Queue<Waiting<?>> waiting = new ConcurrentLinkedQueue<Waiting<?>>();
 
     private static final Map<String, DB> dbs = new HashMap<String, DB>();
 
@@ -38,10 +48,29 @@ public abstract class DB {
         return authentication;
     }
 
+    /**
+     * Registers the adapters of all the FIELD types with the standard SQL column types; dialects replace those
+     * whose column types differ
+     */
     private DB(String driverClass, String format, int port) {
         this.driverClass = driverClass;
         this.format = format;
         this.port = port;
+        adapters.put(OBJ.UUID.class, new Adapter.UUID("bigint"));
+        adapters.put(OBJ.INT.class, new Adapter.INT("integer"));
+        adapters.put(OBJ.LONG.class, new Adapter.LONG("bigint"));
+        adapters.put(OBJ.BOOL.class, new Adapter.BOOL("boolean"));
+        adapters.put(OBJ.NUMERIC.class, new Adapter.NUMERIC("numeric(38, 10)"));
+        adapters.put(OBJ.STR.class, new Adapter.STR("varchar(%d)"));
+        adapters.put(OBJ.CHAR.class, new Adapter.CHAR("char(%d)"));
+        adapters.put(OBJ.VARCHAR.class, new Adapter.VARCHAR("varchar(%d)"));
+        adapters.put(OBJ.LONGSTR.class, new Adapter.LONGSTR("clob"));
+        adapters.put(OBJ.CODEREF.class, new Adapter.CODEREF("varchar(20)"));
+        adapters.put(OBJ.IMAGE.class, new Adapter.IMAGE("blob"));
+        adapters.put(OBJ.REF.class, new Adapter.REF("bigint"));
+        adapters.put(OBJ.DATE.class, new Adapter.DATE("date"));
+        adapters.put(OBJ.TIME.class, new Adapter.TIME("time"));
+        adapters.put(OBJ.TIMESTAMP.class, new Adapter.TIMESTAMP("timestamp"));
     }
 
     public static <T extends DB> T open(Class<T> clazz, String server, String database, PasswordAuthentication authentication) throws IllegalAccessException, InstantiationException, UnknownHostException {
@@ -50,40 +79,406 @@ public abstract class DB {
         t.server = byName.getCanonicalHostName();
         t.database = database;
         t.authentication = authentication;
+        ((DB) t).pool = new Pool(t);
         return t;
     }
 
+    /**
+     * @return a pooled connection; closing it returns the physical connection to {@link #getPool()}
+     */
     public Connection getConnection() throws SQLException {
-        try {
-            Class.forName(driverClass);
-        } catch (ClassNotFoundException e) {
-            throw new SQLException(e.getMessage());
-        }
-        final PasswordAuthentication authentication = getAuthentication();
-        synchronized (this) {
-            return connection == null ? connection = DriverManager.getConnection(getUrl(), authentication.getUserName(), String.valueOf(authentication.getPassword())) : connection;
-        }
+        return pool.borrow();
+    }
+
+    public Pool getPool() {
+        return pool;
+    }
+
+    String getDriverClass() {
+        return driverClass;
     }
 
     public int getPort() {
         return port;
     }
 
+    /**
+     * @return default number of rows a {@link Cursor} asks the driver to fetch per round trip
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 0)
+            throw new IllegalArgumentException("fetch size should be >= 0");
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Makes the driver honour the fetch size instead of reading the whole result at once
+     */
+    protected void prepareForStreaming(Connection connection) throws SQLException {
+    }
+
+    /**
+     * @return number of rows {@link Batch} accumulates per table before it calls {@link java.sql.PreparedStatement#executeBatch()}
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batch size should be > 0");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return capacity of the {@link Statements} cache of every physical connection opened after the call
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        if (statementCacheSize < 0)
+            throw new IllegalArgumentException("statement cache size should be >= 0");
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * @return the {@link Metadata} built last for this database, or null
+     */
+    public Metadata getMetadata() {
+        return Metadata.of(this);
+    }
+
+    /**
+     * Makes CODEREF columns keep small integer codes, which the dictionary table maps to the ids of the code objects,
+     * instead of the ids; must be called before the {@link Metadata} of the database is built. ORDER BY such a column
+     * then sorts by code, i.e. in the order the ids were first written, while {@link OBJ.CODEREF#compareTo} keeps
+     * sorting by id.
+     *
+     * @param table name of the dictionary, see {@link #renderCodeDictionary()}
+     */
+    public void setCodeDictionary(String table) {
+        adapters.put(OBJ.CODEREF.class, new Adapter.CODES(this, table));
+    }
+
+    /**
+     * @return DDL of the dictionary of CODEREF columns, or null if they keep the ids
+     */
+    public String renderCodeDictionary() {
+        final Adapter adapter = adapters.get(OBJ.CODEREF.class);
+        return adapter instanceof Adapter.CODES ? ((Adapter.CODES) adapter).render() : null;
+    }
+
+    /**
+     * @return executor of the asynchronous operations; by default a virtual thread per task if the JVM has them,
+     * a shared pool of daemon threads otherwise
+     */
+    public Executor getExecutor() {
+        final Executor executor = this.executor;
+        return executor != null ? executor : Async.DEFAULT;
+    }
+
+    /**
+     * @param executor executor of the asynchronous operations, or null for the default one
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return number of asynchronous operations which may run at once; the others wait for their turn instead of
+     * timing out in {@link Pool#borrow()}
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public synchronized void setConcurrency(int concurrency) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("concurrency should be > 0");
+        running.resize(concurrency - this.concurrency);
+        this.concurrency = concurrency;
+        dispatch();
+    }
+
+    /**
+     * Runs the task on {@link #getExecutor()} within {@link #getConcurrency()}: the task waits in a queue of the
+     * database, not in a thread, until a running one ends. The task runs outside of the {@link Session} and
+     * {@link Batch} of the caller, which must not touch the objects it passes in until the future completes.
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final Waiting<T> next = new Waiting<T>(task);
+        waiting.add(next);
+        dispatch();
+        return next.future;
+    }
+
+    /**
+     * Hands the waiting tasks to the executor while there are permits; every task gives its permit back and
+     * dispatches again as it ends
+     */
+    private void dispatch() {
+        while (!waiting.isEmpty() && running.tryAcquire()) {
+            final Waiting<?> next = waiting.poll();
+            if (next == null) {
+                running.release();
+                continue;
+            }
+            try {
+                getExecutor().execute(new Runnable() {
+                    public void run() {
+                        try {
+                            next.run();
+                        } finally {
+                            running.release();
+                            dispatch();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.release();
+                next.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class Waiting<T> {
+        private final Callable<T> task;
+        private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        private Waiting(Callable<T> task) {
+            this.task = task;
+        }
+
+        void run() {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return future of the object of this database, or of null if there is no such row
+     */
+    public <T extends OBJ> CompletableFuture<T> loadAsync(final Identity<T> id) {
+        final Metadata metadata = getMetadata();
+        if (metadata == null)
+            throw new IllegalStateException("no Metadata of " + getUrl());
+        return submit(new Callable<T>() {
+            @SuppressWarnings("unchecked")
+            public T call() throws SQLException {
+                return (T) Session.resolve(metadata, id);
+            }
+        });
+    }
+
+    /**
+     * @return future of the objects of the {@link Query}
+     */
+    public <T extends OBJ> CompletableFuture<List<T>> queryAsync(final Query<T> query) {
+        return submit(new Callable<List<T>>() {
+            public List<T> call() throws SQLException {
+                return query.list();
+            }
+        });
+    }
+
+    /**
+     * @return future of the objects the query selects, see {@link Cursor#open(Metadata.Table, String, Object...)}
+     */
+    public <T extends OBJ> CompletableFuture<List<T>> queryAsync(final Metadata.Table table, final String where, final Object... parameters) {
+        return submit(new Callable<List<T>>() {
+            public List<T> call() throws SQLException {
+                final List<T> list = new ArrayList<T>();
+                final Cursor<T> cursor = Cursor.open(table, where, parameters);
+                try {
+                    while (cursor.hasNext())
+                        list.add(cursor.next());
+                } finally {
+                    cursor.close();
+                }
+                return list;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> saveAsync(OBJ obj) {
+        final List<OBJ> objects = new ArrayList<OBJ>(1);
+        objects.add(obj);
+        return saveAsync(objects);
+    }
+
+    /**
+     * Saves the objects within one {@link Batch}
+     */
+    public CompletableFuture<Void> saveAsync(final Iterable<? extends OBJ> objects) {
+        return submit(new Callable<Void>() {
+            public Void call() throws SQLException {
+                final Batch batch = Batch.open(DB.this);
+                try {
+                    for (OBJ obj : objects)
+                        batch.add(obj);
+                } finally {
+                    batch.close();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return future of the number of rows loaded by {@link #load(RowBatch)}
+     */
+    public CompletableFuture<Long> loadAsync(final RowBatch<?> rows) {
+        return submit(new Callable<Long>() {
+            public Long call() throws SQLException {
+                return load(rows);
+            }
+        });
+    }
+
+    /**
+     * @return whether the database compares row values, as in {@code (a, b) > (?, ?)}
+     */
+    boolean hasRowValues() {
+        return false;
+    }
+
+    /**
+     * @return the SELECT restricted to its first rows, in the standard {@code FETCH FIRST} syntax by default
+     */
+    String limit(String select, int limit) {
+        return select + " FETCH FIRST " + limit + " ROWS ONLY";
+    }
+
+    /**
+     * @return the fastest way the database ingests many new rows; batched INSERTs unless the dialect has a bulk path
+     */
+    Loader getLoader() {
+        return new Loader.Inserts(null, getBatchSize());
+    }
+
+    /**
+     * Inserts the objects which are not persistent yet through the bulk path of the database, all or none; they get an
+     * {@link Identity} if they have none and become persistent once the load succeeds.
+     *
+     * @return number of rows loaded
+     */
+    public long load(Metadata.Table table, Iterable<? extends OBJ> objects) throws SQLException {
+        return load(table, new Loader.ObjectRows(table, objects.iterator()));
+    }
+
+    /**
+     * Inserts the rows which are not persistent yet, the same way as {@link #load(Metadata.Table, Iterable)}
+     *
+     * @return number of rows loaded
+     */
+    public long load(RowBatch<?> rows) throws SQLException {
+        return load(rows.getTable(), new Loader.BatchRows(rows));
+    }
+
+    /**
+     * Loads the rows within one transaction; they become persistent once it is committed, and stay as they were
+     * if it fails
+     */
+    private long load(Metadata.Table table, Loader.Rows rows) throws SQLException {
+        Loader loader = getLoader();
+        if (!loader.accepts(table))
+            loader = new Loader.Inserts(null, getBatchSize());
+        final Connection connection = getConnection();
+        try {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            boolean committed = false;
+            try {
+                final long count = loader.load(connection, table, rows);
+                connection.commit();
+                committed = true;
+                rows.written();
+                return count;
+            } finally {
+                try {
+                    if (!committed)
+                        connection.rollback();
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static class Async {
+        private static final Executor DEFAULT = create();
+
+        private static Executor create() {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool(new ThreadFactory() {
+                    private int count;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "better-sql async " + ++count);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+    }
+
     public final static class Oracle extends DB {
         Oracle() {
             super("oracle.jdbc.OracleDriver", "jdbc:oracle:thin:@%s:%d/%s", 1521);
+            adapters.put(OBJ.UUID.class, new Adapter.UUID("NUMBER(19)"));
+            adapters.put(OBJ.INT.class, new Adapter.INT("NUMBER(10)"));
+            adapters.put(OBJ.LONG.class, new Adapter.LONG("NUMBER(19)"));
+            adapters.put(OBJ.BOOL.class, new Adapter.BOOL("NUMBER(1)"));
+            adapters.put(OBJ.NUMERIC.class, new Adapter.NUMERIC("NUMBER"));
+            adapters.put(OBJ.STR.class, new Adapter.STR("VARCHAR2(%d CHAR)"));
+            adapters.put(OBJ.VARCHAR.class, new Adapter.VARCHAR("VARCHAR2(%d CHAR)"));
+            adapters.put(OBJ.CODEREF.class, new Adapter.CODEREF("VARCHAR2(20)"));
+            adapters.put(OBJ.REF.class, new Adapter.REF("NUMBER(19)"));
+            // DATE has the time of day, there is no TIME
+            adapters.put(OBJ.TIME.class, new Adapter.TIME("DATE"));
+        }
+
+        /**
+         * direct-path array inserts above the high water mark
+         */
+        Loader getLoader() {
+            return new Loader.Inserts("APPEND_VALUES", getBatchSize());
         }
     }
 
     private abstract static class TDS extends DB {
         protected TDS(String format, int port) {
             super("net.sourceforge.jtds.jdbc.Driver", format, port);
+            adapters.put(OBJ.BOOL.class, new Adapter.BOOL("bit"));
+            adapters.put(OBJ.LONGSTR.class, new Adapter.LONGSTR("text"));
+            adapters.put(OBJ.IMAGE.class, new Adapter.IMAGE("image"));
+            // timestamp is the row version
+            adapters.put(OBJ.TIMESTAMP.class, new Adapter.TIMESTAMP("datetime"));
+        }
+
+        String limit(String select, int limit) {
+            return "SELECT TOP " + limit + select.substring("SELECT".length());
         }
     }
 
     public final static class MSSQL extends TDS {
         MSSQL() {
             super("jdbc:jtds:sqlserver://%s:%d/%s", 1433);
+            adapters.put(OBJ.LONGSTR.class, new Adapter.LONGSTR("ntext"));
         }
     }
 
@@ -96,11 +491,32 @@ public abstract class DB {
     private abstract static class PostgresLike extends DB {
         protected PostgresLike(String driverClass, String format, final int port) {
             super(driverClass, format, port);
+            adapters.put(OBJ.LONGSTR.class, new Adapter.LONGSTR("text"));
+            adapters.put(OBJ.IMAGE.class, new Adapter.IMAGE("bytea"));
         }
 
         protected PostgresLike() {
             this("org.postgresql.Driver", "jdbc:postgresql://%s:%d/%s", 5432);
         }
+
+        /**
+         * the driver uses a server-side cursor only inside a transaction
+         */
+        protected void prepareForStreaming(Connection connection) throws SQLException {
+            connection.setAutoCommit(false);
+        }
+
+        String limit(String select, int limit) {
+            return select + " LIMIT " + limit;
+        }
+
+        boolean hasRowValues() {
+            return true;
+        }
+
+        Loader getLoader() {
+            return new Loader.Copy();
+        }
     }
 
     public static class Postgres extends PostgresLike {
@@ -111,6 +527,16 @@ public abstract class DB {
     public final static class Netezza extends PostgresLike {
         Netezza() {
             super("org.netezza.Driver", "jdbc:netezza://%s:%d/%s", 5480);
+            adapters.put(OBJ.LONGSTR.class, new Adapter.LONGSTR("nvarchar(16000)"));
+            adapters.put(OBJ.IMAGE.class, new Adapter.IMAGE("varbinary(64000)"));
+        }
+
+        Loader getLoader() {
+            return new Loader.External();
+        }
+
+        boolean hasRowValues() {
+            return false;
         }
     }
 
@@ -124,22 +550,42 @@ public abstract class DB {
 
         DB2() {
             super("com.ibm.db2.jcc.DB2Driver", "jdbc:db2://%s:%d/%s", 50000);
+            adapters.put(OBJ.BOOL.class, new Adapter.BOOL("smallint"));
+            adapters.put(OBJ.NUMERIC.class, new Adapter.NUMERIC("decfloat(34)"));
+        }
+
+        boolean hasRowValues() {
+            return true;
         }
     }
 
-    public final static class H2 extends DB {
+    public static class H2 extends DB {
         H2() {
-            super("org.h2.Driver", "jdbc:h2:tcp://%s:%d/%s", 9092);
-            adapters.put(OBJ.INT.class, new Adapter.INT());
-            adapters.put(OBJ.LONG.class, new Adapter.LONG());
-            adapters.put(OBJ.STR.class, new Adapter.STR());
-            adapters.put(OBJ.CHAR.class, new Adapter.CHAR());
-            adapters.put(OBJ.VARCHAR.class, new Adapter.VARCHAR());
-            adapters.put(OBJ.LONGSTR.class, new Adapter.LONGSTR());
-            adapters.put(OBJ.CODEREF.class, new Adapter.CODEREF());
-            adapters.put(OBJ.IMAGE.class, new Adapter.IMAGE());
-            adapters.put(OBJ.REF.class, new Adapter.REF());
-            adapters.put(OBJ.DATE.class, new Adapter.DATE());
+            this("jdbc:h2:tcp://%s:%d/%s");
+        }
+
+        protected H2(String format) {
+            super("org.h2.Driver", format, 9092);
+        }
+
+        boolean hasRowValues() {
+            return true;
+        }
+    }
+
+    /**
+     * In-process H2 database in memory, named by {@code database}; it lives until the JVM exits
+     */
+    public final static class H2Embedded extends H2 {
+        H2Embedded() {
+            super("jdbc:h2:mem:%3$s;DB_CLOSE_DELAY=-1");
+        }
+
+        /**
+         * the database runs in this process, so it reads the files this process writes
+         */
+        Loader getLoader() {
+            return new Loader.Csv();
         }
     }
 }
@@ -4,10 +4,238 @@
 
 package org.boudnik.better.sql;
 
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
 /**
+ * Annotation processor which emits a {@link Metadata.Descriptor} for every {@link TABLE} class, so that
+ * {@link Metadata} registers it without instantiating it or reading its annotations by reflection.
+ * <p>
+ * The declarations are validated here the same way {@link Metadata} does at run time; a violation is a compile error.
+ *
  * @author shr
  * @version $Id: Exp $
  * @since Mar 14, 2006 11:57:53 PM
  */
-public class Generator {
+@SupportedAnnotationTypes("org.boudnik.better.sql.TABLE")
+public class Generator extends AbstractProcessor {
+    private static final String REQUIRED = "is required";
+    private static final String ZERO_LENGTH = "zero-length is prohibited";
+
+    private Elements elements;
+    private Types types;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        for (TypeElement clazz : ElementFilter.typesIn(round.getElementsAnnotatedWith(TABLE.class)))
+            if (clazz.getKind() == ElementKind.CLASS && !isObj(clazz))
+                try {
+                    generate(clazz);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.toString(), clazz);
+                }
+        return false;
+    }
+
+    private void generate(TypeElement clazz) throws IOException {
+        final List<String> columns = new ArrayList<String>();
+        final List<VariableElement> fields = new ArrayList<VariableElement>();
+        int declared = 0;
+        boolean valid = true;
+        for (TypeElement type : getHierarchy(clazz))
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                if (!isField(field.asType()))
+                    continue;
+                if (!field.getModifiers().contains(Modifier.FINAL)) {
+                    error(field, "should be final");
+                    valid = false;
+                } else if (!field.getModifiers().contains(Modifier.STATIC)) {
+                    final String column = getColumn(field, columns.size());
+                    valid &= column != null;
+                    columns.add(column);
+                    fields.add(field);
+                    if (type == clazz)
+                        declared++;
+                }
+            }
+        if (!valid)
+            return;
+        final String simpleName = getBinaryName(clazz).substring(getPackage(clazz).length() == 0 ? 0 : getPackage(clazz).length() + 1) + Metadata.Descriptor.SUFFIX;
+        final String qualifiedName = getPackage(clazz).length() == 0 ? simpleName : getPackage(clazz) + '.' + simpleName;
+        final PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, clazz).openWriter());
+        try {
+            if (getPackage(clazz).length() > 0)
+                out.printf("package %s;%n%n", getPackage(clazz));
+            out.printf("/**%n * Generated by %s from %s; do not edit%n */%n", Generator.class.getName(), clazz.getQualifiedName());
+            out.printf("public final class %s extends %s {%n", simpleName, Metadata.Descriptor.class.getCanonicalName());
+            out.printf("    public %s() {%n", simpleName);
+            out.printf("        super(%d, %d", clazz.getAnnotation(TABLE.class).value(), declared);
+            for (String column : columns)
+                out.printf(",%n                new Column(%s)", column);
+            out.printf(");%n    }%n");
+            if (isAccessible(clazz)) {
+                final String obj = OBJ.class.getCanonicalName();
+                if (isInstantiable(clazz))
+                    out.printf("%n    protected %s create() {%n        return new %s();%n    }%n", obj, clazz.getQualifiedName());
+                out.printf("%n    protected %s.FIELD getField(%s obj, int index) {%n        switch (index) {%n", obj, obj);
+                for (int i = 0; i < fields.size(); i++)
+                    if (isUuid(fields.get(i)))
+                        out.printf("            case %d:%n                return obj.getUuid();%n", i);
+                    else if (isAccessible(fields.get(i), clazz))
+                        out.printf("            case %d:%n                return ((%s) obj).%s;%n", i, clazz.getQualifiedName(), fields.get(i).getSimpleName());
+                out.printf("            default:%n                return null;%n        }%n    }%n");
+            }
+            out.printf("}%n");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return arguments of {@link Metadata.Descriptor.Column} constructor, or null if the declaration is invalid
+     */
+    private String getColumn(VariableElement field, int index) {
+        final TypeElement type = (TypeElement) types.asElement(field.asType());
+        final Type defaults = type.getAnnotation(Type.class);
+        if (defaults == null) {
+            error(field, type.getQualifiedName() + " is not annotated with @" + Type.class.getSimpleName());
+            return null;
+        }
+        final NAME name = field.getAnnotation(NAME.class);
+        final MANDATORY mandatory = field.getAnnotation(MANDATORY.class);
+        final DEFERRED deferred = field.getAnnotation(DEFERRED.class);
+        final LENGTH length = field.getAnnotation(LENGTH.class);
+        final PATTERN pattern = field.getAnnotation(PATTERN.class);
+        final boolean isRequired = mandatory == null ? defaults.required() : mandatory.value();
+        final int maxLength = length == null ? 0 : length.value();
+        if (defaults.required() && !isRequired) {
+            error(field, REQUIRED);
+            return null;
+        }
+        if (maxLength == 0 && (isSubtype(type, OBJ.STR.class) || isSubtype(type, OBJ.CHAR.class) || isSubtype(type, OBJ.LONGSTR.class))) {
+            error(field, ZERO_LENGTH);
+            return null;
+        }
+        final String patternValue = pattern == null ? "".equals(defaults.pattern()) ? null : defaults.pattern() : pattern.value();
+        return String.format("%s.class, \"%s\", \"%s\", %s.class, %s, %d, %b, %b, %b, %d, %s",
+                ((TypeElement) field.getEnclosingElement()).getQualifiedName(),
+                field.getSimpleName(),
+                name == null || "".equals(name.value()) ? field.getSimpleName() : name.value(),
+                type.getQualifiedName(),
+                getTarget(field),
+                index,
+                isRequired,
+                deferred == null ? defaults.deferred() : deferred.value(),
+                field.getModifiers().contains(Modifier.TRANSIENT),
+                maxLength,
+                patternValue == null ? "null" : elements.getConstantExpression(patternValue));
+    }
+
+    /**
+     * @return class literal of the type argument of {@code REF<T>} and {@code CODEREF<T>}, or "null"
+     */
+    private String getTarget(VariableElement field) {
+        final TypeElement type = (TypeElement) types.asElement(field.asType());
+        if (!isSubtype(type, OBJ.REF.class) && !isSubtype(type, OBJ.CODEREF.class))
+            return "null";
+        final List<? extends TypeMirror> arguments = ((DeclaredType) field.asType()).getTypeArguments();
+        if (arguments.isEmpty() || arguments.get(0).getKind() != TypeKind.DECLARED)
+            return "null";
+        return ((TypeElement) types.asElement(arguments.get(0))).getQualifiedName() + ".class";
+    }
+
+    /**
+     * @return the class and its superclasses, {@link OBJ} first, which is the order their FIELDs are initialized in
+     */
+    private List<TypeElement> getHierarchy(TypeElement clazz) {
+        final LinkedList<TypeElement> hierarchy = new LinkedList<TypeElement>();
+        for (TypeElement type = clazz; type != null; type = type.getSuperclass().getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(type.getSuperclass()) : null) {
+            if (type.getQualifiedName().contentEquals(Object.class.getName()))
+                break;
+            hierarchy.addFirst(type);
+        }
+        return hierarchy;
+    }
+
+    /**
+     * @return whether the generated descriptor in the package of the class can cast to it
+     */
+    private boolean isAccessible(TypeElement clazz) {
+        for (Element element = clazz; element.getKind() != ElementKind.PACKAGE; element = element.getEnclosingElement())
+            if (element.getModifiers().contains(Modifier.PRIVATE))
+                return false;
+        return clazz.getNestingKind() == NestingKind.TOP_LEVEL || clazz.getModifiers().contains(Modifier.STATIC);
+    }
+
+    private boolean isInstantiable(TypeElement clazz) {
+        if (clazz.getModifiers().contains(Modifier.ABSTRACT))
+            return false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(clazz.getEnclosedElements()))
+            if (constructor.getParameters().isEmpty())
+                return !constructor.getModifiers().contains(Modifier.PRIVATE);
+        return false;
+    }
+
+    /**
+     * @return whether the generated descriptor in the package of the class can read the field directly
+     */
+    private boolean isAccessible(VariableElement field, TypeElement clazz) {
+        final Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC))
+            return true;
+        return !modifiers.contains(Modifier.PRIVATE) && elements.getPackageOf(field).equals(elements.getPackageOf(clazz));
+    }
+
+    private boolean isUuid(VariableElement field) {
+        return isObj((TypeElement) field.getEnclosingElement()) && field.getSimpleName().contentEquals("uuid");
+    }
+
+    private boolean isField(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && isSubtype((TypeElement) types.asElement(type), OBJ.FIELD.class);
+    }
+
+    private boolean isSubtype(TypeElement type, Class<?> clazz) {
+        final TypeElement zuper = elements.getTypeElement(clazz.getCanonicalName());
+        return zuper != null && types.isSubtype(types.erasure(type.asType()), types.erasure(zuper.asType()));
+    }
+
+    private boolean isObj(TypeElement clazz) {
+        return clazz.getQualifiedName().contentEquals(OBJ.class.getName());
+    }
+
+    private String getPackage(TypeElement clazz) {
+        return elements.getPackageOf(clazz).getQualifiedName().toString();
+    }
+
+    private String getBinaryName(TypeElement clazz) {
+        return elements.getBinaryName(clazz).toString();
+    }
+
+    private void error(VariableElement field, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                field.getEnclosingElement().getSimpleName() + "." + field.getSimpleName() + ' ' + message, field);
+    }
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Objects hydrated by the same load. The first access to a column which was not read, such as a {@link DEFERRED} one,
+ * fetches it for every member still missing it with chunked {@code IN (...)} queries instead of one query per object.
+ * <p>
+ * Members are held weakly, so a group never keeps the objects of a streaming load alive.
+ *
+ * @author shr
+ * @since Oct 17, 2026 4:02:48 PM
+ */
+class Group {
+    static final int CHUNK = 500;
+
+    private final Metadata.Table table;
+    private final List<WeakReference<OBJ>> members = new ArrayList<WeakReference<OBJ>>();
+
+    Group(Metadata.Table table) {
+        this.table = table;
+    }
+
+    Group add(OBJ obj) {
+        members.add(new WeakReference<OBJ>(obj));
+        obj.setGroup(this);
+        return this;
+    }
+
+    int size() {
+        return members.size();
+    }
+
+    void fetch(Metadata.Field field) throws SQLException {
+        final Map<Long, OBJ> pending = new LinkedHashMap<Long, OBJ>();
+        for (WeakReference<OBJ> member : members) {
+            final OBJ obj = member.get();
+            if (obj != null && obj.isPersistent() && !obj.isRead(field))
+                pending.put(obj.getUuid().get().longValue(), obj);
+        }
+        if (pending.isEmpty())
+            return;
+        final Connection connection = table.getMetadata().getDB().getConnection();
+        try {
+            if (pending.size() == 1)
+                fetchOne(connection, field, pending.values().iterator().next());
+            else
+                fetchAll(connection, field, pending);
+        } finally {
+            connection.close();
+        }
+        for (OBJ obj : pending.values())
+            obj.setRead(field);
+    }
+
+    /**
+     * Resolves the references of the REF field of every member, see {@link #resolve(Collection, Metadata.Field)}
+     */
+    void resolve(Metadata.Field field) throws SQLException {
+        final List<OBJ> objects = new ArrayList<OBJ>(members.size());
+        for (WeakReference<OBJ> member : members) {
+            final OBJ obj = member.get();
+            if (obj != null)
+                objects.add(obj);
+        }
+        resolve(objects, field);
+    }
+
+    /**
+     * Resolves the unresolved references of the REF field of the objects: targets already in the current
+     * {@link Session} are taken from there, the others are loaded per target table, which the class id of
+     * each {@link Identity} tells
+     */
+    static void resolve(Collection<? extends OBJ> objects, Metadata.Field field) throws SQLException {
+        final Session session = Session.current();
+        final Map<Integer, Map<Long, List<Reference<OBJ>>>> pending = new HashMap<Integer, Map<Long, List<Reference<OBJ>>>>();
+        Metadata metadata = null;
+        for (OBJ obj : objects) {
+            if (!obj.isRead(field))
+                continue;
+            final Object value = obj.getValue(field);
+            if (!(value instanceof Reference))
+                continue;
+            //noinspection unchecked
+            final Reference<OBJ> reference = (Reference<OBJ>) value;
+            final Identity id = reference.peek();
+            if (reference.isResolved() || id == null)
+                continue;
+            final OBJ known = session == null ? null : session.get(id);
+            if (known != null) {
+                reference.resolve(known);
+                continue;
+            }
+            metadata = obj.getTable().getMetadata();
+            Map<Long, List<Reference<OBJ>>> byId = pending.get(id.getClassId());
+            if (byId == null)
+                pending.put(id.getClassId(), byId = new LinkedHashMap<Long, List<Reference<OBJ>>>());
+            List<Reference<OBJ>> references = byId.get(id.longValue());
+            if (references == null)
+                byId.put(id.longValue(), references = new ArrayList<Reference<OBJ>>(1));
+            references.add(reference);
+        }
+        for (Map.Entry<Integer, Map<Long, List<Reference<OBJ>>>> entry : pending.entrySet()) {
+            final Metadata.Table target = metadata.get(entry.getKey());
+            if (target == null)
+                continue;
+            final Map<Long, OBJ> loaded = target.load(entry.getValue().keySet());
+            for (Map.Entry<Long, List<Reference<OBJ>>> references : entry.getValue().entrySet()) {
+                final OBJ obj = loaded.get(references.getKey());
+                if (obj != null)
+                    for (Reference<OBJ> reference : references.getValue())
+                        reference.resolve(obj);
+            }
+        }
+    }
+
+    private void fetchOne(Connection connection, Metadata.Field field, OBJ obj) throws SQLException {
+        final BitSet column = new BitSet();
+        column.set(field.getIndex());
+        final Statements.Lease lease = Statements.of(connection).prepare(table, Statements.Operation.SELECT, column);
+        try {
+            final PreparedStatement ps = lease.getStatement();
+            ps.setLong(1, obj.getUuid().get().longValue());
+            final ResultSet rs = ps.executeQuery();
+            try {
+                if (rs.next())
+                    obj.setValue(field, field.getAdapter().getValue(field, rs, 1));
+            } finally {
+                rs.close();
+            }
+        } finally {
+            lease.close();
+        }
+    }
+
+    private void fetchAll(Connection connection, Metadata.Field field, Map<Long, OBJ> pending) throws SQLException {
+        final List<Long> ids = new ArrayList<Long>(pending.keySet());
+        for (int from = 0; from < ids.size(); from += CHUNK) {
+            final List<Long> chunk = ids.subList(from, Math.min(from + CHUNK, ids.size()));
+            final StringBuilder in = new StringBuilder();
+            for (int i = 0; i < chunk.size(); i++)
+                in.append(i == 0 ? "?" : ", ?");
+            final BitSet columns = new BitSet();
+            columns.set(table.getUuid().getIndex());
+            columns.set(field.getIndex());
+            final PreparedStatement ps = connection.prepareStatement(String.format("SELECT %s, %s FROM %s WHERE %s IN (%s)",
+                    table.getUuid().getName(), field.getName(), table.getSource(columns, true), table.getUuid().getName(), in));
+            try {
+                for (int i = 0; i < chunk.size(); i++)
+                    ps.setLong(i + 1, chunk.get(i));
+                final ResultSet rs = ps.executeQuery();
+                try {
+                    while (rs.next()) {
+                        final OBJ obj = pending.get(rs.getLong(1));
+                        if (obj != null)
+                            obj.setValue(field, field.getAdapter().getValue(field, rs, 2));
+                    }
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                ps.close();
+            }
+        }
+    }
+
+    static InputStream openStream(OBJ obj, Metadata.Field field) throws SQLException {
+        final Column column = new Column(obj, field);
+        final InputStream stream = column.rs.getBinaryStream(1);
+        if (stream == null) {
+            column.close();
+            return null;
+        }
+        return new FilterInputStream(stream) {
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    column.closeQuietly();
+                }
+            }
+        };
+    }
+
+    static Reader openReader(OBJ obj, Metadata.Field field) throws SQLException {
+        final Column column = new Column(obj, field);
+        final Reader reader = column.rs.getCharacterStream(1);
+        if (reader == null) {
+            column.close();
+            return null;
+        }
+        return new FilterReader(reader) {
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    column.closeQuietly();
+                }
+            }
+        };
+    }
+
+    /**
+     * one column of one row, positioned and kept open until the stream over it is closed
+     */
+    private static class Column {
+        private final Connection connection;
+        private final Statements.Lease lease;
+        private final ResultSet rs;
+
+        private Column(OBJ obj, Metadata.Field field) throws SQLException {
+            final Metadata.Table table = obj.getTable();
+            final BitSet column = new BitSet();
+            column.set(field.getIndex());
+            connection = table.getMetadata().getDB().getConnection();
+            Statements.Lease lease = null;
+            ResultSet rs = null;
+            try {
+                lease = Statements.of(connection).prepare(table, Statements.Operation.SELECT, column);
+                lease.getStatement().setLong(1, obj.getUuid().get().longValue());
+                rs = lease.getStatement().executeQuery();
+                if (!rs.next())
+                    throw new SQLException(String.format("%s %s does not exist", table.getName(), obj.getUuid().get()));
+            } catch (SQLException e) {
+                if (rs != null)
+                    rs.close();
+                if (lease != null)
+                    lease.close();
+                connection.close();
+                throw e;
+            }
+            this.lease = lease;
+            this.rs = rs;
+        }
+
+        void close() throws SQLException {
+            try {
+                rs.close();
+            } finally {
+                try {
+                    lease.close();
+                } finally {
+                    connection.close();
+                }
+            }
+        }
+
+        void closeQuietly() throws IOException {
+            try {
+                close();
+            } catch (SQLException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Secondary index on the column; the columns of the fields with the same {@link #value()} make one composite
+ * index, in the order the fields are declared. See {@link Metadata.Table#getIndexes()}.
+ *
+ * @author shr
+ * @since Oct 18, 2026 12:41:17 AM
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface INDEX {
+    /**
+     * @return name of the index within the table; the column name by default
+     */
+    String value() default "";
+
+    boolean unique() default false;
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps the class and its subclasses, the hierarchy, to SQL tables; without it every concrete class has a table
+ * of its own with all its columns, inherited ones included
+ *
+ * @author shr
+ * @since Oct 18, 2026 1:26:44 AM
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface INHERITANCE {
+    Strategy value();
+
+    enum Strategy {
+        /**
+         * a table per concrete class with all its columns
+         */
+        TABLE_PER_CLASS,
+        /**
+         * one table, named after the annotated class, with the columns of all the classes and a discriminator
+         * column which holds the {@link TABLE} id of the row
+         */
+        SINGLE_TABLE,
+        /**
+         * a table per class with uuid and the columns the class declares; the rows of an object are joined by uuid
+         */
+        JOINED
+    }
+}
@@ -5,23 +5,38 @@
 package org.boudnik.better.sql;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author shr
  * @since Oct 21, 2005 12:42:11 AM
  */
 public class Identity<T extends OBJ> implements Serializable, Comparable<Identity<T>> {
-    private static int seq = 0;
-    private static long mills = System.currentTimeMillis();
+    /**
+     * ids a thread takes from the counter of a class at once
+     */
+    static final int BLOCK = 16;
+    private static final int CLASSES = 1 << 12;
+    private static final long TIME_SEQ = 0x000fffffffffffffL;
+    private static final AtomicReferenceArray<Counter> counters = new AtomicReferenceArray<Counter>(CLASSES);
+    private static final ThreadLocal<long[]> blocks = new ThreadLocal<long[]>() {
+        protected long[] initialValue() {
+            return new long[Blocks.SLOTS * 3];
+        }
+    };
+
     private long i1;
 
+    /**
+     * The lower 52 bits are {@code time << 12 | seq}, taken from a counter per class which never goes back: when more than
+     * 4096 ids of a class are requested within a millisecond, the sequence carries into the time of the next one.
+     * Each thread reserves {@link #BLOCK} ids with one CAS and hands them out without any synchronization.
+     */
     public Identity(int classId) {
-        synchronized (Identity.class) {
-            int x = seq++ & 0xfff;
-            if (x == 0)
-                mills = System.currentTimeMillis() & 0x000000ffffffffffL;
-            i1 = ((long) classId) << 52 | mills << 12 | x;
-        }
+        if (classId < 0 || classId >= CLASSES)
+            throw new IllegalArgumentException("class id should be between 0 and " + (CLASSES - 1));
+        i1 = ((long) classId) << 52 | Blocks.next(blocks.get(), classId);
     }
 
     public Integer getClassId() {
@@ -32,6 +47,10 @@ public class Identity<T extends OBJ> implements Serializable, Comparable<Identit
         i1 = value;
     }
 
+    long longValue() {
+        return i1;
+    }
+
     public static Identity valueOf(String presentation) {
         return new Identity(Long.parseLong(presentation.substring(15, 18), 16) << 52 | // class_id
                 Long.parseLong(presentation.substring(0, 10), 16) << 12 | // time
@@ -63,4 +82,50 @@ public class Identity<T extends OBJ> implements Serializable, Comparable<Identit
     public int compareTo(Identity<T> o) {
         return o == null ? 1 : new Long(i1).compareTo(o.i1);
     }
+
+    private static Counter counter(int classId) {
+        Counter counter = counters.get(classId);
+        if (counter == null && !counters.compareAndSet(classId, null, counter = new Counter()))
+            counter = counters.get(classId);
+        return counter;
+    }
+
+    /**
+     * direct-mapped per-thread cache of reserved blocks: {@code classId, next, limit} per slot
+     */
+    private static class Blocks {
+        private static final int SLOTS = 16;
+
+        static long next(long[] blocks, int classId) {
+            final int slot = (classId & (SLOTS - 1)) * 3;
+            if (blocks[slot] != classId + 1 || blocks[slot + 1] == blocks[slot + 2]) {
+                final long first = counter(classId).reserve(BLOCK);
+                blocks[slot] = classId + 1;
+                blocks[slot + 1] = first;
+                blocks[slot + 2] = first + BLOCK;
+            }
+            return blocks[slot + 1]++ & TIME_SEQ;
+        }
+    }
+
+    /**
+     * {@code time << 12 | seq} of the last reserved id, padded against false sharing with the counters of other classes
+     */
+    @SuppressWarnings("unused")
+    private static class Counter extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+
+        /**
+         * @return the first of {@code n} consecutive values, none of them below the current time
+         */
+        long reserve(int n) {
+            final long now = (System.currentTimeMillis() & 0x000000ffffffffffL) << 12;
+            for (; ; ) {
+                final long last = get();
+                final long first = Math.max(last + 1, now);
+                if (compareAndSet(last, first + n - 1))
+                    return first;
+            }
+        }
+    }
 }
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bulk ingest of new rows of one table in the fastest way the database offers, see {@link DB#load(RowBatch)}.
+ * Values are encoded column by column by the {@link Adapter} of every {@link Metadata.Field}.
+ *
+ * @author shr
+ * @since Oct 17, 2026 9:26:14 PM
+ */
+abstract class Loader {
+    /**
+     * @return number of rows loaded
+     */
+    abstract long load(Connection connection, Metadata.Table table, Rows rows) throws SQLException;
+
+    /**
+     * @return whether the loader can encode every column of the table
+     */
+    boolean accepts(Metadata.Table table) {
+        return true;
+    }
+
+    /**
+     * Rows to load, one at a time. Rows which are persistent already are skipped; the others get an
+     * {@link Identity} if they have none as they are reached, and become persistent by {@link #written()}
+     * once the load is committed.
+     */
+    abstract static class Rows {
+        protected final Metadata.Table table;
+        private long count;
+
+        protected Rows(Metadata.Table table) {
+            this.table = table;
+        }
+
+        boolean next() {
+            if (!advance())
+                return false;
+            count++;
+            return true;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        protected abstract boolean advance();
+
+        /**
+         * marks the rows reached so far persistent
+         */
+        abstract void written();
+
+        abstract Object getValue(Metadata.Field field);
+
+        abstract boolean isNull(Metadata.Field field);
+
+        abstract long getPrimitive(Metadata.Field field);
+    }
+
+    static class ObjectRows extends Rows {
+        private final Iterator<? extends OBJ> iterator;
+        private final Session session = Session.current();
+        private final List<OBJ> reached = new ArrayList<OBJ>();
+        private OBJ obj;
+
+        ObjectRows(Metadata.Table table, Iterator<? extends OBJ> iterator) {
+            super(table);
+            this.iterator = iterator;
+        }
+
+        protected boolean advance() {
+            while (iterator.hasNext()) {
+                final OBJ obj = iterator.next();
+                if (obj.getTable() != table)
+                    throw new IllegalArgumentException(obj.getClass().getSimpleName() + " is not " + table.getName());
+                if (obj.isPersistent())
+                    continue;
+                if (obj.getUuid().get() == null)
+                    obj.getUuid().set(new Identity(table.getId()));
+                reached.add(obj);
+                this.obj = obj;
+                return true;
+            }
+            return false;
+        }
+
+        void written() {
+            for (OBJ obj : reached) {
+                obj.setPersistent();
+                obj.setRead();
+                obj.clean();
+                if (session != null)
+                    session.put(obj);
+            }
+            reached.clear();
+        }
+
+        Object getValue(Metadata.Field field) {
+            return obj.getValue(field);
+        }
+
+        boolean isNull(Metadata.Field field) {
+            return obj.isNull(field);
+        }
+
+        long getPrimitive(Metadata.Field field) {
+            return obj.getPrimitive(field);
+        }
+    }
+
+    static class BatchRows extends Rows {
+        private final RowBatch<?> rows;
+        private final BitSet reached = new BitSet();
+        private int row = -1;
+
+        BatchRows(RowBatch<?> rows) {
+            super(rows.getTable());
+            this.rows = rows;
+        }
+
+        protected boolean advance() {
+            while (++row < rows.size()) {
+                if (rows.isPersistent(row))
+                    continue;
+                if (rows.getValue(row, table.getUuid()) == null)
+                    rows.setValue(row, table.getUuid(), new Identity(table.getId()));
+                reached.set(row);
+                return true;
+            }
+            return false;
+        }
+
+        void written() {
+            for (int i = reached.nextSetBit(0); i >= 0; i = reached.nextSetBit(i + 1))
+                rows.setPersistent(i, true);
+            reached.clear();
+        }
+
+        Object getValue(Metadata.Field field) {
+            return rows.getValue(row, field);
+        }
+
+        boolean isNull(Metadata.Field field) {
+            return rows.isNull(row, field);
+        }
+
+        long getPrimitive(Metadata.Field field) {
+            return rows.getPrimitive(row, field);
+        }
+    }
+
+    /**
+     * Batched INSERTs, optionally with an optimizer hint; the fallback of every dialect. A row of a
+     * {@link INHERITANCE.Strategy#JOINED JOINED} hierarchy is inserted into the table of every level.
+     */
+    static class Inserts extends Loader {
+        private final String hint;
+        private final int size;
+
+        /**
+         * @param hint e.g. {@code APPEND_VALUES}, or null
+         */
+        Inserts(String hint, int size) {
+            this.hint = hint;
+            this.size = size;
+        }
+
+        long load(Connection connection, Metadata.Table table, Rows rows) throws SQLException {
+            final Metadata.Table[] levels = table.getLevels();
+            final Statements.Lease[] leases = new Statements.Lease[levels.length];
+            final PreparedStatement[] statements = new PreparedStatement[levels.length];
+            final List<Finalizer> finalizers = new ArrayList<Finalizer>();
+            final Metadata.Field[] fields = table.getFields();
+            int pending = 0;
+            try {
+                for (int n = 0; n < levels.length; n++) {
+                    final BitSet columns = levels[n].getStoredColumns();
+                    if (hint == null)
+                        statements[n] = (leases[n] = Statements.of(connection).prepare(levels[n], Statements.Operation.INSERT, columns)).getStatement();
+                    else
+                        statements[n] = connection.prepareStatement(levels[n].getSql(Statements.Operation.INSERT, columns).replaceFirst("^INSERT ", "INSERT /*+ " + hint + " */ "));
+                }
+                while (rows.next()) {
+                    for (int n = 0; n < levels.length; n++) {
+                        final PreparedStatement ps = statements[n];
+                        final BitSet columns = levels[n].getStoredColumns();
+                        int parameter = 0;
+                        for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1)) {
+                            final Metadata.Field field = fields[i];
+                            ++parameter;
+                            if (rows.isNull(field))
+                                field.getAdapter().setNull(field, ps, parameter);
+                            else if (field.getSlot() >= 0)
+                                field.getAdapter().setPrimitive(field, ps, parameter, rows.getPrimitive(field));
+                            else {
+                                final Finalizer finalizer = field.getAdapter().setValue(field, ps, parameter, rows.getValue(field));
+                                if (finalizer != null)
+                                    finalizers.add(finalizer);
+                            }
+                        }
+                        ps.addBatch();
+                    }
+                    if (++pending >= size) {
+                        execute(statements, finalizers);
+                        pending = 0;
+                    }
+                }
+                if (pending > 0)
+                    execute(statements, finalizers);
+            } finally {
+                for (Finalizer finalizer : finalizers)
+                    finalizer.close();
+                for (int n = 0; n < levels.length; n++)
+                    if (leases[n] != null)
+                        leases[n].close();
+                    else if (statements[n] != null)
+                        statements[n].close();
+            }
+            return rows.getCount();
+        }
+
+        private static void execute(PreparedStatement[] statements, List<Finalizer> finalizers) throws SQLException {
+            try {
+                for (PreparedStatement ps : statements)
+                    ps.executeBatch();
+            } finally {
+                for (Finalizer finalizer : finalizers)
+                    finalizer.close();
+                finalizers.clear();
+            }
+        }
+    }
+
+    /**
+     * Rows encoded as delimited text, one line per row
+     */
+    abstract static class Text extends Loader {
+        /**
+         * also requires the table to be the SQL table of its class, see {@link INHERITANCE}
+         */
+        boolean accepts(Metadata.Table table) {
+            if (table.getStrategy() != INHERITANCE.Strategy.TABLE_PER_CLASS)
+                return false;
+            for (Metadata.Field field : table.getFields())
+                if (!field.getAdapter().isTextual())
+                    return false;
+            return true;
+        }
+
+        void encode(Metadata.Table table, Rows rows, StringBuilder line) throws SQLException {
+            final Metadata.Field[] fields = table.getFields();
+            for (int i = 0; i < fields.length; i++) {
+                final Metadata.Field field = fields[i];
+                if (i > 0)
+                    line.append(getSeparator());
+                if (rows.isNull(field))
+                    appendNull(line);
+                else if (field.getSlot() >= 0)
+                    append(line, field.getAdapter().formatPrimitive(field, rows.getPrimitive(field)));
+                else
+                    append(line, field.getAdapter().format(field, rows.getValue(field)));
+            }
+            line.append('\n');
+        }
+
+        abstract char getSeparator();
+
+        abstract void appendNull(StringBuilder line);
+
+        abstract void append(StringBuilder line, String value);
+
+        /**
+         * Writes all rows into a temporary file
+         */
+        File write(Metadata.Table table, Rows rows) throws SQLException {
+            try {
+                final File file = File.createTempFile(table.getName(), ".txt");
+                final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+                try {
+                    final StringBuilder line = new StringBuilder();
+                    while (rows.next()) {
+                        line.setLength(0);
+                        encode(table, rows, line);
+                        out.append(line);
+                    }
+                } finally {
+                    out.close();
+                }
+                return file;
+            } catch (IOException e) {
+                throw new SQLException(e.getMessage(), e);
+            }
+        }
+
+        static void execute(Connection connection, String sql) throws SQLException {
+            final Statement statement = connection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * {@code COPY ... FROM STDIN} in text format through the CopyManager of the PostgreSQL driver,
+     * streaming the rows as they are encoded
+     */
+    static class Copy extends Text {
+        long load(Connection connection, final Metadata.Table table, final Rows rows) throws SQLException {
+            final String sql = String.format("COPY %s (%s) FROM STDIN", table.getName(), table.getColumnList(table.getColumns(), ""));
+            try {
+                final Object pg = connection.unwrap(Class.forName("org.postgresql.PGConnection"));
+                final Object api = pg.getClass().getMethod("getCopyAPI").invoke(pg);
+                final Method copyIn = api.getClass().getMethod("copyIn", String.class, Reader.class);
+                return (Long) copyIn.invoke(api, sql, new Reader() {
+                    private final StringBuilder line = new StringBuilder();
+                    private int position;
+
+                    public int read(char[] buffer, int offset, int length) throws IOException {
+                        if (position == line.length()) {
+                            line.setLength(0);
+                            position = 0;
+                            try {
+                                if (!rows.next())
+                                    return -1;
+                                encode(table, rows, line);
+                            } catch (SQLException e) {
+                                throw new IOException(e.getMessage(), e);
+                            }
+                        }
+                        final int n = Math.min(length, line.length() - position);
+                        line.getChars(position, position + n, buffer, offset);
+                        position += n;
+                        return n;
+                    }
+
+                    public void close() {
+                    }
+                });
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException)
+                    throw (SQLException) e.getCause();
+                throw new SQLException(e.getCause().getMessage(), e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new SQLException("COPY needs the PostgreSQL driver", e);
+            }
+        }
+
+        char getSeparator() {
+            return '\t';
+        }
+
+        void appendNull(StringBuilder line) {
+            line.append("\\N");
+        }
+
+        void append(StringBuilder line, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                switch (c) {
+                    case '\\':
+                        line.append("\\\\");
+                        break;
+                    case '\t':
+                        line.append("\\t");
+                        break;
+                    case '\n':
+                        line.append("\\n");
+                        break;
+                    case '\r':
+                        line.append("\\r");
+                        break;
+                    default:
+                        line.append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Netezza transient external table over a file the JDBC driver sends from the client
+     */
+    static class External extends Text {
+        long load(Connection connection, Metadata.Table table, Rows rows) throws SQLException {
+            final File file = write(table, rows);
+            try {
+                execute(connection, String.format("INSERT INTO %s SELECT * FROM EXTERNAL '%s' SAMEAS %s USING (REMOTESOURCE 'JDBC' DELIMITER 9 ESCAPECHAR '\\' NULLVALUE '\\N' ENCODING 'INTERNAL')",
+                        table.getName(), file.getAbsolutePath().replace("'", "''"), table.getName()));
+                return rows.getCount();
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+
+        char getSeparator() {
+            return '\t';
+        }
+
+        void appendNull(StringBuilder line) {
+            line.append("\\N");
+        }
+
+        void append(StringBuilder line, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '\\' || c == '\t' || c == '\n' || c == '\r')
+                    line.append('\\');
+                line.append(c);
+            }
+        }
+    }
+
+    /**
+     * H2 {@code CSVREAD} of a file the database reads itself, so only for {@link DB.H2Embedded}: a server reached
+     * over TCP cannot see the temporary files of the client
+     */
+    static class Csv extends Text {
+        long load(Connection connection, Metadata.Table table, Rows rows) throws SQLException {
+            final File file = write(table, rows);
+            try {
+                final String columns = table.getColumnList(table.getColumns(), "");
+                execute(connection, String.format("INSERT INTO %s (%s) SELECT * FROM CSVREAD('%s', '%s', 'charset=UTF-8')",
+                        table.getName(), columns, file.getAbsolutePath().replace("'", "''"), columns.replace(" ", "")));
+                return rows.getCount();
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+
+        char getSeparator() {
+            return ',';
+        }
+
+        /**
+         * an empty field is NULL, an empty string is quoted
+         */
+        void appendNull(StringBuilder line) {
+        }
+
+        void append(StringBuilder line, String value) {
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '"')
+                    line.append('"');
+                line.append(c);
+            }
+            line.append('"');
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map with primitive {@code long} keys, so that lookups by {@link Identity} neither box
+ * nor allocate.
+ *
+ * @author shr
+ * @since Oct 17, 2026 5:48:33 PM
+ */
+class LongMap<V> {
+    private static final long FREE = 0;
+
+    private long[] keys;
+    private Object[] values;
+    private Object zero;
+    private boolean hasZero;
+    private int size;
+    private int mask;
+
+    LongMap() {
+        this(16);
+    }
+
+    LongMap(int capacity) {
+        int length = 16;
+        while (length < capacity * 2)
+            length <<= 1;
+        keys = new long[length];
+        values = new Object[length];
+        mask = length - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        if (key == FREE)
+            return (V) zero;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            final long k = keys[i];
+            if (k == key)
+                return (V) values[i];
+            if (k == FREE)
+                return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (key == FREE) {
+            final V prev = (V) zero;
+            if (!hasZero)
+                size++;
+            hasZero = true;
+            zero = value;
+            return prev;
+        }
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            final long k = keys[i];
+            if (k == key) {
+                final V prev = (V) values[i];
+                values[i] = value;
+                return prev;
+            }
+            if (k == FREE) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size * 2 > keys.length)
+                    grow();
+                return null;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        if (key == FREE) {
+            final V prev = (V) zero;
+            if (hasZero)
+                size--;
+            hasZero = false;
+            zero = null;
+            return prev;
+        }
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            final long k = keys[i];
+            if (k == FREE)
+                return null;
+            if (k == key) {
+                final V prev = (V) values[i];
+                size--;
+                shift(i);
+                return prev;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, null);
+        zero = null;
+        hasZero = false;
+        size = 0;
+    }
+
+    /**
+     * closes the gap left by a removed entry, so that probing never stops before a key it should reach
+     */
+    private void shift(int gap) {
+        for (int i = (gap + 1) & mask; keys[i] != FREE; i = (i + 1) & mask) {
+            final int home = slot(keys[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = FREE;
+        values[gap] = null;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != FREE)
+                for (int j = slot(oldKeys[i]); ; j = (j + 1) & mask)
+                    if (keys[j] == FREE) {
+                        keys[j] = oldKeys[i];
+                        values[j] = oldValues[i];
+                        break;
+                    }
+    }
+
+    private int slot(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
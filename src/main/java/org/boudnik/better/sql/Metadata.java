@@ -5,6 +5,10 @@
 package org.boudnik.better.sql;
 
 import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
 
 /**
@@ -16,6 +20,16 @@ public class Metadata implements Iterable<Metadata.Table> {
     private static final transient String REQUIRED = "is required";
     private static final transient String ZERO_LENGTH = "zero-length is prohibited";
 
+    /**
+     * the metadata of every database, the one built last for it; see {@link #of(Class)}
+     */
+    private static final Map<DB, Metadata> registry = new java.util.concurrent.ConcurrentHashMap<DB, Metadata>();
+    /**
+     * metadata the objects created on the thread by their default constructor are bound to, while it is building
+     * them or {@link Table#create()} does
+     */
+    private static final ThreadLocal<Metadata> binding = new ThreadLocal<Metadata>();
+
     private final DB db;
     private final Map<Integer, Metadata.Table> byId = new HashMap<Integer, Metadata.Table>();
     private final Map<Class<? extends OBJ>, Metadata.Table> byClass = new HashMap<Class<? extends OBJ>, Metadata.Table>();
@@ -24,11 +38,22 @@ public class Metadata implements Iterable<Metadata.Table> {
         this(null, classList);
     }
 
+    /**
+     * Builds the metadata of the database; it replaces the one built before for the same database
+     */
     public Metadata(DB db, Class<? extends OBJ>... classList) {
         this.db = db;
-        Set<Class<? extends OBJ>> visited = new HashSet<Class<? extends OBJ>>();
-        for (Class<? extends OBJ> clazz : classList)
-            createOne(visited, clazz);
+        final Metadata outer = binding.get();
+        binding.set(this);
+        try {
+            Set<Class<? extends OBJ>> visited = new HashSet<Class<? extends OBJ>>();
+            for (Class<? extends OBJ> clazz : classList)
+                createOne(visited, clazz);
+        } finally {
+            bind(outer);
+        }
+        if (db != null)
+            registry.put(db, this);
     }
 
     public static class IllegalFieldDeclaration extends IllegalArgumentException {
@@ -53,36 +78,115 @@ public class Metadata implements Iterable<Metadata.Table> {
         }
     }
 
+    /**
+     * @return the metadata of the database, the one built last for it, or null
+     */
+    static Metadata of(DB db) {
+        return registry.get(db);
+    }
+
+    /**
+     * @return the metadata objects of the class are bound to when they are created by the default constructor:
+     * the one creating them, see {@link Table#create()}, the one of the current {@link Session} if it maps the
+     * class, or else the only database which maps it
+     * @throws IllegalStateException if no database or more than one maps the class
+     */
+    static Metadata of(Class<? extends OBJ> clazz) {
+        final Metadata bound = binding.get();
+        if (bound != null && bound.byClass.containsKey(clazz))
+            return bound;
+        final Session session = Session.current();
+        if (session != null && session.getMetadata().byClass.containsKey(clazz))
+            return session.getMetadata();
+        Metadata found = null;
+        for (Metadata metadata : registry.values())
+            if (metadata.byClass.containsKey(clazz)) {
+                if (found != null)
+                    throw new IllegalStateException(clazz.getName() + " is mapped in more than one database; open a Session or pass the Metadata");
+                found = metadata;
+            }
+        if (found == null)
+            throw new IllegalStateException(clazz.getName() + " is not mapped in any database");
+        return found;
+    }
+
+    /**
+     * @return the metadata of the current {@link Session} if it maps the class of the identity, or else the only
+     * database which maps it
+     * @throws IllegalStateException if no database or more than one maps the class
+     */
+    static Metadata of(Identity id) {
+        final int classId = id.getClassId();
+        final Session session = Session.current();
+        if (session != null && session.getMetadata().byId.containsKey(classId))
+            return session.getMetadata();
+        Metadata found = null;
+        for (Metadata metadata : registry.values())
+            if (metadata.byId.containsKey(classId)) {
+                if (found != null)
+                    throw new IllegalStateException(id + " is of a class mapped in more than one database; open a Session");
+                found = metadata;
+            }
+        if (found == null)
+            throw new IllegalStateException(id + " is of a class not mapped in any database");
+        return found;
+    }
+
+    private static void bind(Metadata metadata) {
+        if (metadata == null)
+            binding.remove();
+        else
+            binding.set(metadata);
+    }
+
+    public DB getDB() {
+        return db;
+    }
+
     private <T extends OBJ> void createOne(Set<Class<? extends OBJ>> visited, final Class<T> clazz) {
         if (!visited.add(clazz))
             return;
         final Class<? super T> superclass = clazz.getSuperclass();
-        if (superclass == Object.class)
-            return;
-        //noinspection RedundantCast
-        createOne(visited, (Class<OBJ>) superclass);
-        final int id = getId(clazz);
+        if (superclass != Object.class)
+            //noinspection RedundantCast
+            createOne(visited, (Class<OBJ>) superclass);
+        final Descriptor descriptor = Descriptor.of(clazz);
+        final int id = descriptor != null ? descriptor.id : getId(clazz);
         if (id < 0)
             throw new IllegalArgumentException(clazz + " id should be > 0");
-        @SuppressWarnings("RedundantCast") final Table table = new Table(clazz, getFields(clazz.getDeclaredFields()).size(), byClass.get((Class<OBJ>) superclass));
+        final int declared = descriptor != null ? descriptor.declared : getFields(clazz.getDeclaredFields()).size();
+        @SuppressWarnings("RedundantCast") final Table table = new Table(clazz, id, declared, byClass.get((Class<OBJ>) superclass));
+        table.descriptor = descriptor;
         byClass.put(clazz, table);
         final Table prev = byId.put(id, table);
         if (prev != null)
             throw new IllegalArgumentException("duplicate id " + id + " in " + prev.clazz + " and " + clazz);
+        if (Modifier.isAbstract(clazz.getModifiers()))
+            return;
+        if (descriptor != null) {
+            for (Descriptor.Column column : descriptor.columns) {
+                final Field meta = new Field(descriptor, column);
+                table.byName.put(meta.getName(), meta);
+                table.fields[column.index] = meta;
+            }
+            table.layout();
+            table.share();
+            return;
+        }
         try {
-            if (!Modifier.isAbstract(clazz.getModifiers())) {
-                OBJ obj = clazz.newInstance();
-                for (java.lang.reflect.Field field : getFields(clazz.getFields())) {
-                    final OBJ.FIELD oField = (OBJ.FIELD) field.get(obj);
-                    final Field meta = new Field(field, oField.getTarget(), oField.index);
-                    table.byName.put(meta.getName(), meta);
-                    table.fields[oField.index] = meta;
-                    oField.check(meta);
-                }
+            OBJ obj = clazz.newInstance();
+            for (java.lang.reflect.Field field : getAllFields(clazz)) {
+                final OBJ.FIELD oField = (OBJ.FIELD) field.get(obj);
+                final Field meta = new Field(field, oField.getTarget(), oField.index);
+                table.byName.put(meta.getName(), meta);
+                table.fields[oField.index] = meta;
+                oField.check(meta);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        table.layout();
+        table.share();
     }
 
     private List<java.lang.reflect.Field> getFields(java.lang.reflect.Field[] declaredFields) {
@@ -101,6 +205,15 @@ public class Metadata implements Iterable<Metadata.Table> {
         return fields;
     }
 
+    private List<java.lang.reflect.Field> getAllFields(Class<?> clazz) {
+        List<java.lang.reflect.Field> fields = new ArrayList<java.lang.reflect.Field>();
+        for (; clazz != Object.class; clazz = clazz.getSuperclass())
+            fields.addAll(getFields(clazz.getDeclaredFields()));
+        for (java.lang.reflect.Field field : fields)
+            field.setAccessible(true);
+        return fields;
+    }
+
     @Override
     public Iterator<Table> iterator() {
         return byClass.values().iterator();
@@ -120,19 +233,250 @@ public class Metadata implements Iterable<Metadata.Table> {
 
     public void print() {
         for (Table table : this)
-            if (table != null) {
+            if (table != null && table.ownsStorage()) {
                 System.out.println(table.render());
+                for (Table member : table.getMembers())
+                    for (String index : member.renderIndexes())
+                        System.out.println(index);
                 System.out.println();
             }
     }
 
+    /**
+     * Compares the indexes of the concrete tables with the catalog of the database
+     *
+     * @return indexes the database lacks, including those of missing tables; {@link Index#render()} creates them
+     */
+    public List<Index> getMissingIndexes(Connection connection) throws SQLException {
+        final DatabaseMetaData catalog = connection.getMetaData();
+        final List<Index> missing = new ArrayList<Index>();
+        for (Table table : this)
+            if (table != null && table.ownsStorage())
+                for (Table member : table.getMembers())
+                    missing.addAll(member.getMissingIndexes(catalog));
+        return missing;
+    }
+
+    /**
+     * Primary key, unique key or secondary index of a {@link Table}
+     */
+    public static class Index {
+        private final Table table;
+        private final String name;
+        private final Field[] columns;
+        private final boolean primary;
+        private final boolean unique;
+
+        Index(Table table, String name, Field[] columns, boolean primary, boolean unique) {
+            this.table = table;
+            this.name = name;
+            this.columns = columns;
+            this.primary = primary;
+            this.unique = unique;
+        }
+
+        public Table getTable() {
+            return table;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Field[] getColumns() {
+            return columns.clone();
+        }
+
+        public boolean isPrimary() {
+            return primary;
+        }
+
+        public boolean isUnique() {
+            return unique;
+        }
+
+        String getColumnList() {
+            final StringBuilder sb = new StringBuilder();
+            for (Field column : columns)
+                sb.append(sb.length() == 0 ? "" : ", ").append(column.getName());
+            return sb.toString();
+        }
+
+        /**
+         * @return the DDL which adds the index to an existing table
+         */
+        public String render() {
+            if (primary)
+                return String.format("ALTER TABLE %s ADD PRIMARY KEY (%s)", table.getStorageName(), getColumnList());
+            return String.format("CREATE %sINDEX %s ON %s (%s)", unique ? "UNIQUE " : "", name, table.getStorageName(), getColumnList());
+        }
+
+        /**
+         * @param columns names of the columns of an existing index, in its order
+         */
+        boolean isCoveredBy(List<String> columns, boolean unique) {
+            if (this.unique) {
+                if (!unique || columns.size() != this.columns.length)
+                    return false;
+                for (Field column : this.columns)
+                    if (!contains(columns, column.getName()))
+                        return false;
+                return true;
+            }
+            if (columns.size() < this.columns.length)
+                return false;
+            for (int i = 0; i < this.columns.length; i++)
+                if (!this.columns[i].getName().equalsIgnoreCase(columns.get(i)))
+                    return false;
+            return true;
+        }
+
+        private static boolean contains(List<String> columns, String name) {
+            for (String column : columns)
+                if (column.equalsIgnoreCase(name))
+                    return true;
+            return false;
+        }
+
+        public String toString() {
+            return render();
+        }
+    }
+
+    /**
+     * Table and column definitions of one class, emitted at compile time by {@link Generator} as
+     * {@code <class>$Descriptor} in the package of the class; they are already validated, so the class is neither
+     * instantiated nor inspected by reflection when it is registered.
+     */
+    public static class Descriptor {
+        static final String SUFFIX = "$Descriptor";
+
+        final int id;
+        final int declared;
+        final Column[] columns;
+
+        /**
+         * @param declared number of columns declared by the class itself
+         * @param columns  all columns of the class, including inherited ones
+         */
+        protected Descriptor(int id, int declared, Column... columns) {
+            this.id = id;
+            this.declared = declared;
+            this.columns = columns;
+        }
+
+        /**
+         * @return the generated descriptor of the class, or null if it was compiled without {@link Generator}
+         */
+        static Descriptor of(Class<? extends OBJ> clazz) {
+            try {
+                return (Descriptor) Class.forName(clazz.getName() + SUFFIX, true, clazz.getClassLoader()).newInstance();
+            } catch (ClassNotFoundException e) {
+                return null;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @return a new object, or null to have it created by reflection
+         */
+        protected OBJ create() {
+            return null;
+        }
+
+        /**
+         * @return the FIELD of the object with the index, or null to read it by reflection
+         */
+        protected OBJ.FIELD getField(OBJ obj, int index) {
+            return null;
+        }
+
+        public static class Column {
+            final Class<?> declaringClass;
+            final String field;
+            final String name;
+            final Class<? extends OBJ.FIELD> type;
+            final Class target;
+            final int index;
+            final boolean isRequired;
+            final boolean isDeferred;
+            final boolean isTransient;
+            final int length;
+            final String pattern;
+
+            /**
+             * @param field the Java name of the field declared by {@code declaringClass}
+             * @param name  the column name
+             */
+            public Column(Class<?> declaringClass, String field, String name, Class<? extends OBJ.FIELD> type, Class target, int index,
+                          boolean isRequired, boolean isDeferred, boolean isTransient, int length, String pattern) {
+                this.declaringClass = declaringClass;
+                this.field = field;
+                this.name = name;
+                this.type = type;
+                this.target = target;
+                this.index = index;
+                this.isRequired = isRequired;
+                this.isDeferred = isDeferred;
+                this.isTransient = isTransient;
+                this.length = length;
+                this.pattern = pattern;
+            }
+        }
+    }
+
     public class Table {
+        /**
+         * column of a {@link INHERITANCE.Strategy#SINGLE_TABLE SINGLE_TABLE} hierarchy which holds the {@link TABLE} id
+         * of the class of the row
+         */
+        public static final String DISCRIMINATOR = "classId";
         protected final Class<? extends OBJ> clazz;
+        private final int id;
         @SuppressWarnings({"MismatchedQueryAndUpdateOfCollection"})
         private final Map<String, Field> byName = new HashMap<String, Field>();
         final Field[] fields;
+        private final BitSet columns = new BitSet();
+        private BitSet eager;
+        private volatile Field[] order;
+        private volatile List<Index> indexes;
+        private final Table zuper;
+        private final List<Table> subtables = new ArrayList<Table>();
+        private final INHERITANCE.Strategy strategy;
+        private final Table root;
+        private final Table[] levels;
+        private final BitSet declared = new BitSet();
+        private final BitSet stored = new BitSet();
+        private final Map<Statements.Operation, Map<BitSet, String>> sql = new EnumMap<Statements.Operation, Map<BitSet, String>>(Statements.Operation.class);
+        private final Cache cache;
+        private final Map<BitSet, Hydrator> hydrators = new java.util.concurrent.ConcurrentHashMap<BitSet, Hydrator>();
+        private final Map<Query.Shape, String> queries = new java.util.concurrent.ConcurrentHashMap<Query.Shape, String>();
+        private final Map<Class<?>, Projection<?>> projections = new java.util.concurrent.ConcurrentHashMap<Class<?>, Projection<?>>();
+        private Descriptor descriptor;
+        private int primitives;
 
+        /**
+         * @return a new object bound to this metadata
+         */
         public OBJ create() {
+            final Metadata outer = binding.get();
+            if (outer == Metadata.this)
+                return instantiate();
+            binding.set(Metadata.this);
+            try {
+                return instantiate();
+            } finally {
+                bind(outer);
+            }
+        }
+
+        private OBJ instantiate() {
+            if (descriptor != null) {
+                final OBJ obj = descriptor.create();
+                if (obj != null)
+                    return obj;
+            }
             try {
                 return getType().newInstance();
             } catch (Exception e) {
@@ -148,9 +492,188 @@ public class Metadata implements Iterable<Metadata.Table> {
             return fields;
         }
 
-        public Table(final Class<? extends OBJ> clazz, final int length, Table zuper) {
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return clazz.getSimpleName();
+        }
+
+        public Metadata getMetadata() {
+            return Metadata.this;
+        }
+
+        public Table(final Class<? extends OBJ> clazz, final int id, final int length, Table zuper) {
             this.clazz = clazz;
+            this.id = id;
             fields = new Metadata.Field[length + (zuper != null ? zuper.fields.length : 0)];
+            columns.set(0, fields.length);
+            this.zuper = zuper;
+            final INHERITANCE inheritance = clazz.getAnnotation(INHERITANCE.class);
+            strategy = inheritance == null ? INHERITANCE.Strategy.TABLE_PER_CLASS : inheritance.value();
+            if (zuper != null && zuper.strategy != INHERITANCE.Strategy.TABLE_PER_CLASS) {
+                if (clazz.getDeclaredAnnotation(INHERITANCE.class) != null)
+                    throw new IllegalArgumentException(clazz + " is mapped by " + zuper.root.clazz);
+                root = zuper.root;
+                levels = Arrays.copyOf(zuper.levels, zuper.levels.length + (strategy == INHERITANCE.Strategy.JOINED ? 1 : 0));
+                levels[levels.length - 1] = this;
+                declared.set(zuper.fields.length, fields.length);
+            } else {
+                root = this;
+                levels = new Table[]{this};
+                declared.set(0, fields.length);
+            }
+            if (strategy == INHERITANCE.Strategy.JOINED) {
+                stored.or(declared);
+                stored.set(0);
+            } else
+                stored.set(0, fields.length);
+            if (zuper != null)
+                zuper.subtables.add(this);
+            final CACHE config = clazz.getAnnotation(CACHE.class);
+            cache = config == null ? null : new Cache(config);
+            for (Statements.Operation operation : Statements.Operation.values())
+                sql.put(operation, new java.util.concurrent.ConcurrentHashMap<BitSet, String>());
+        }
+
+        /**
+         * assigns {@link OBJ} primitive slots to the columns of {@link Primitive} types
+         */
+        private void layout() {
+            for (Field field : fields)
+                if (field.primitive != null)
+                    field.slot = primitives++;
+        }
+
+        /**
+         * Lends the columns to the abstract ancestors, which are not instantiated, so that they can render
+         * their SQL
+         */
+        private void share() {
+            for (Table table = zuper; table != null; table = table.zuper)
+                for (int i = 0; i < table.fields.length; i++)
+                    if (table.fields[i] == null) {
+                        table.fields[i] = fields[i];
+                        table.byName.put(fields[i].getName(), fields[i]);
+                    }
+        }
+
+        public INHERITANCE.Strategy getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * @return the table of the class which declares the {@link INHERITANCE} of the hierarchy, or this one
+         */
+        public Table getRoot() {
+            return root;
+        }
+
+        /**
+         * @return whether the table has a SQL table of its own, see {@link #render()}
+         */
+        public boolean ownsStorage() {
+            switch (strategy) {
+                case SINGLE_TABLE:
+                    return this == root;
+                case JOINED:
+                    return fields.length == 0 || fields[0] != null;
+                default:
+                    return !isAbstract();
+            }
+        }
+
+        /**
+         * @return name of the SQL table which keeps the columns {@link #getStoredColumns()} of the objects
+         */
+        public String getStorageName() {
+            return strategy == INHERITANCE.Strategy.SINGLE_TABLE ? root.getName() : getName();
+        }
+
+        /**
+         * @return the tables an object is written to, from the root down: the ancestors and the table itself when
+         * the hierarchy is {@link INHERITANCE.Strategy#JOINED JOINED}, just the table otherwise
+         */
+        Table[] getLevels() {
+            return levels;
+        }
+
+        /**
+         * @return the columns the storage of the table keeps for its objects
+         */
+        BitSet getStoredColumns() {
+            return stored;
+        }
+
+        /**
+         * @return the tables whose rows the SQL table of this one keeps: with their subclasses, recursively, for
+         * the root of a {@link INHERITANCE.Strategy#SINGLE_TABLE SINGLE_TABLE} hierarchy, just this one otherwise
+         */
+        List<Table> getMembers() {
+            if (strategy != INHERITANCE.Strategy.SINGLE_TABLE)
+                return Collections.singletonList(this);
+            final List<Table> members = new ArrayList<Table>();
+            members.add(this);
+            for (int i = 0; i < members.size(); i++)
+                for (Table table : members.get(i).subtables)
+                    if (table.root == root)
+                        members.add(table);
+            return members;
+        }
+
+        /**
+         * @param columns    the columns the statement refers to
+         * @param byIdentity whether the rows are picked by uuid, whose class id already tells the class of a row
+         * @return FROM item which has the columns of the rows of this very class under their names: the table of
+         * the class, the rows of the class in a single table filtered by discriminator, or the join of just the
+         * levels of a joined hierarchy which keep any of the columns
+         */
+        String getSource(BitSet columns, boolean byIdentity) {
+            switch (strategy) {
+                case SINGLE_TABLE:
+                    return byIdentity ? root.getName() : String.format("(SELECT * FROM %s WHERE %s = %d) %s", root.getName(), DISCRIMINATOR, id, getName());
+                case JOINED:
+                    final List<Table> joined = new ArrayList<Table>();
+                    for (Table level : levels) {
+                        final BitSet own = (BitSet) level.stored.clone();
+                        own.and(columns);
+                        own.clear(getUuid().getIndex());
+                        if (!own.isEmpty() || level == this && !byIdentity)
+                            joined.add(level);
+                    }
+                    if (joined.isEmpty())
+                        joined.add(levels[0]);
+                    final boolean filter = !byIdentity && !subtables.isEmpty();
+                    if (joined.size() == 1 && !filter)
+                        return joined.get(0).getName();
+                    final StringBuilder select = new StringBuilder("t0.").append(getUuid().getName());
+                    final StringBuilder from = new StringBuilder();
+                    for (int n = 0; n < joined.size(); n++) {
+                        final Table level = joined.get(n);
+                        for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1))
+                            if (i != getUuid().getIndex() && level.stored.get(i))
+                                select.append(", t").append(n).append('.').append(fields[i].getName());
+                        if (n == 0)
+                            from.append(level.getName()).append(" t0");
+                        else
+                            from.append(String.format(" JOIN %s t%d ON t%2$d.%3$s = t0.%3$s", level.getName(), n, getUuid().getName()));
+                    }
+                    if (filter) {
+                        final long low = (long) id << 52;
+                        from.append(String.format(" WHERE t0.%s BETWEEN %d AND %d", getUuid().getName(), low, low | 0x000fffffffffffffL));
+                    }
+                    return String.format("(SELECT %s FROM %s) %s", select, from, getName());
+                default:
+                    return getName();
+            }
+        }
+
+        /**
+         * @return number of columns whose values are kept unboxed
+         */
+        int getPrimitives() {
+            return primitives;
         }
 
         public boolean isAbstract() {
@@ -159,27 +682,505 @@ public class Metadata implements Iterable<Metadata.Table> {
 
         public String toString() {
             final StringBuilder sb = new StringBuilder();
-            sb.append(String.format("%s(%d)", clazz.getSimpleName(), getId(clazz)));
+            sb.append(String.format("%s(%d)", getName(), id));
             for (Field field : fields)
                 sb.append(String.format("%n%s", field));
             return sb.toString();
         }
 
         public String render() {
+            if (this != root && strategy == INHERITANCE.Strategy.SINGLE_TABLE)
+                return root.render();
             final StringBuilder sb = new StringBuilder();
-            sb.append(String.format("CREATE TABLE %s (", clazz.getSimpleName()));
+            sb.append(String.format("CREATE TABLE %s (", getName()));
             String comma = "";
-            for (Field field : fields) {
-                sb.append(String.format("%s%n\t%s", comma, field.getDefinition()));
-                comma = ",";
-            }
+            if (strategy == INHERITANCE.Strategy.SINGLE_TABLE) {
+                final Map<String, Field> union = new LinkedHashMap<String, Field>();
+                for (Table member : getMembers())
+                    for (int i = member.declared.nextSetBit(0); i >= 0; i = member.declared.nextSetBit(i + 1)) {
+                        final Field field = member.fields[i];
+                        if (field == null)
+                            continue;
+                        final Field same = union.get(field.getName().toLowerCase());
+                        if (same == null)
+                            union.put(field.getName().toLowerCase(), field);
+                        else if (!same.getColumnDefinition().equals(field.getColumnDefinition()))
+                            throw new IllegalArgumentException(String.format("%s of %s and %s differ in type", field.getName(), member.getName(), getName()));
+                    }
+                for (Field field : union.values()) {
+                    final boolean required = field.isRequired() && declared.get(field.getIndex()) && fields[field.getIndex()] == field;
+                    sb.append(String.format("%s%n\t%s %s %s", comma, field.getName(), field.getColumnDefinition(), required ? "NOT NULL" : "NULL"));
+                    comma = ",";
+                }
+                sb.append(String.format("%s%n\t%s int NOT NULL", comma, DISCRIMINATOR));
+            } else
+                for (int i = stored.nextSetBit(0); i >= 0; i = stored.nextSetBit(i + 1)) {
+                    sb.append(String.format("%s%n\t%s", comma, fields[i].getDefinition()));
+                    comma = ",";
+                }
+            sb.append(String.format("%s%n\tPRIMARY KEY (%s)", comma, getUuid().getName()));
             sb.append(String.format("%n)"));
             return sb.toString();
         }
+
+        /**
+         * @return the primary key on {@link #getUuid() uuid}, the unique index on the columns of {@link OBJ#getKey()}
+         * of a concrete table, and the indexes of {@link INDEX} columns; within a hierarchy mapped by
+         * {@link INHERITANCE} a table has just the indexes of the columns its class declares, so that an index is
+         * not repeated by every subclass
+         */
+        public List<Index> getIndexes() {
+            List<Index> indexes = this.indexes;
+            if (indexes == null) {
+                indexes = new ArrayList<Index>();
+                if (ownsStorage())
+                    indexes.add(new Index(this, getName() + "_pk", new Field[]{getUuid()}, true, true));
+                if (!isAbstract()) {
+                    final List<Field> key = new ArrayList<Field>();
+                    boolean own = true;
+                    for (OBJ.FIELD field : create().getKey()) {
+                        if (!key.contains(fields[field.index]))
+                            key.add(fields[field.index]);
+                        own &= declared.get(field.index);
+                    }
+                    if (own && !key.isEmpty() && !(key.size() == 1 && key.get(0) == getUuid()))
+                        indexes.add(new Index(this, getName() + "_key", key.toArray(new Field[key.size()]), false, true));
+                }
+                final Map<String, List<Field>> byIndex = new LinkedHashMap<String, List<Field>>();
+                final Map<String, Boolean> unique = new HashMap<String, Boolean>();
+                for (int i = declared.nextSetBit(0); i >= 0; i = declared.nextSetBit(i + 1)) {
+                    final Field field = fields[i];
+                    final INDEX index = field.getReflection().getAnnotation(INDEX.class);
+                    if (index == null)
+                        continue;
+                    final String name = getName() + "_" + ("".equals(index.value()) ? field.getName() : index.value());
+                    List<Field> columns = byIndex.get(name);
+                    if (columns == null)
+                        byIndex.put(name, columns = new ArrayList<Field>());
+                    columns.add(field);
+                    unique.put(name, index.unique() || Boolean.TRUE.equals(unique.get(name)));
+                }
+                for (Map.Entry<String, List<Field>> entry : byIndex.entrySet())
+                    indexes.add(new Index(this, entry.getKey(), entry.getValue().toArray(new Field[entry.getValue().size()]), false, unique.get(entry.getKey())));
+                this.indexes = indexes = Collections.unmodifiableList(indexes);
+            }
+            return indexes;
+        }
+
+        /**
+         * @return CREATE INDEX statements of the indexes besides the primary key, which {@link #render()} declares
+         */
+        public List<String> renderIndexes() {
+            final List<String> ddl = new ArrayList<String>();
+            for (Index index : getIndexes())
+                if (!index.isPrimary())
+                    ddl.add(index.render());
+            return ddl;
+        }
+
+        /**
+         * @return the indexes no index of the table in the catalog can serve: a unique index needs a unique one
+         * on the same columns, any other an index which starts with its columns
+         */
+        List<Index> getMissingIndexes(DatabaseMetaData catalog) throws SQLException {
+            final String table = catalog.storesUpperCaseIdentifiers() ? getStorageName().toUpperCase() : catalog.storesLowerCaseIdentifiers() ? getStorageName().toLowerCase() : getStorageName();
+            final List<String> primary = new ArrayList<String>();
+            final ResultSet keys = catalog.getPrimaryKeys(null, null, table);
+            try {
+                final Map<Integer, String> byPosition = new TreeMap<Integer, String>();
+                while (keys.next())
+                    byPosition.put(keys.getInt("KEY_SEQ"), keys.getString("COLUMN_NAME"));
+                primary.addAll(byPosition.values());
+            } finally {
+                keys.close();
+            }
+            final Map<String, Map<Integer, String>> existing = new HashMap<String, Map<Integer, String>>();
+            final Set<String> unique = new HashSet<String>();
+            final ResultSet rs = catalog.getIndexInfo(null, null, table, false, false);
+            try {
+                while (rs.next()) {
+                    final String name = rs.getString("INDEX_NAME");
+                    if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic || name == null)
+                        continue;
+                    Map<Integer, String> columns = existing.get(name);
+                    if (columns == null)
+                        existing.put(name, columns = new TreeMap<Integer, String>());
+                    columns.put((int) rs.getShort("ORDINAL_POSITION"), rs.getString("COLUMN_NAME"));
+                    if (!rs.getBoolean("NON_UNIQUE"))
+                        unique.add(name);
+                }
+            } finally {
+                rs.close();
+            }
+            final List<Index> missing = new ArrayList<Index>();
+            for (Index index : getIndexes()) {
+                boolean covered = false;
+                if (index.isPrimary())
+                    covered = !primary.isEmpty() && index.isCoveredBy(primary, true);
+                else
+                    for (Map.Entry<String, Map<Integer, String>> entry : existing.entrySet())
+                        if (index.isCoveredBy(new ArrayList<String>(entry.getValue().values()), unique.contains(entry.getKey()))) {
+                            covered = true;
+                            break;
+                        }
+                if (!covered)
+                    missing.add(index);
+            }
+            return missing;
+        }
+
+        /**
+         * @return the SQL text of the operation, built once per column set; the rows of
+         * {@link Statements.Operation#SELECT SELECT}, {@link Statements.Operation#UPDATE UPDATE} and
+         * {@link Statements.Operation#DELETE DELETE} are identified by {@link #getUuid() uuid} as the last parameter
+         */
+        String getSql(Statements.Operation operation, BitSet columns) {
+            final Map<BitSet, String> cache = sql.get(operation);
+            String text = cache.get(columns);
+            if (text == null)
+                cache.put((BitSet) columns.clone(), text = render(operation, columns));
+            return text;
+        }
+
+        /**
+         * @return the SQL text of the {@link Query queries} of this table by their shape, which lives as long as the table
+         */
+        Map<Query.Shape, String> getQueries() {
+            return queries;
+        }
+
+        private String render(Statements.Operation operation, BitSet columns) {
+            final String list = getColumnList(columns, operation == Statements.Operation.UPDATE ? " = ?" : "");
+            switch (operation) {
+                case INSERT:
+                    final StringBuilder values = new StringBuilder();
+                    for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1))
+                        values.append(values.length() == 0 ? "?" : ", ?");
+                    if (strategy == INHERITANCE.Strategy.SINGLE_TABLE)
+                        return String.format("INSERT INTO %s (%s, %s) VALUES (%s, %d)", getStorageName(), list, DISCRIMINATOR, values, id);
+                    return String.format("INSERT INTO %s (%s) VALUES (%s)", getStorageName(), list, values);
+                case SELECT:
+                    return String.format("SELECT %s FROM %s WHERE %s = ?", list, getSource(columns, true), getUuid().getName());
+                case UPDATE:
+                    return String.format("UPDATE %s SET %s WHERE %s = ?", getStorageName(), list, getUuid().getName());
+                default:
+                    return String.format("DELETE FROM %s WHERE %s = ?", getStorageName(), getUuid().getName());
+            }
+        }
+
+        String getColumnList(BitSet columns, String suffix) {
+            final StringBuilder list = new StringBuilder();
+            for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1))
+                list.append(list.length() == 0 ? "" : ", ").append(fields[i].getName()).append(suffix);
+            return list.toString();
+        }
+
+        /**
+         * @return the plan which copies the columns from result set positions 1, 2, ... in index order
+         */
+        Hydrator getHydrator(BitSet columns) {
+            Hydrator hydrator = hydrators.get(columns);
+            if (hydrator == null) {
+                final Field[] selected = new Field[columns.cardinality()];
+                final int[] positions = new int[selected.length];
+                for (int i = columns.nextSetBit(0), n = 0; i >= 0; i = columns.nextSetBit(i + 1), n++) {
+                    selected[n] = fields[i];
+                    positions[n] = n + 1;
+                }
+                hydrators.put((BitSet) columns.clone(), hydrator = new Hydrator(selected, positions));
+            }
+            return hydrator;
+        }
+
+        /**
+         * @return the plan which copies the columns the {@link VIEW} class declares into its instances
+         */
+        @SuppressWarnings("unchecked")
+        <V> Projection<V> getProjection(Class<V> clazz) {
+            Projection<V> projection = (Projection<V>) projections.get(clazz);
+            if (projection == null)
+                projections.put(clazz, projection = new Projection<V>(this, clazz));
+            return projection;
+        }
+
+        /**
+         * Copies result set rows into new objects. Adapters, positions and the read mask are resolved once,
+         * so a row costs one adapter call per column and no lookups or reflection.
+         */
+        class Hydrator {
+            private final Field[] columns;
+            private final int[] positions;
+            private final Adapter[] adapters;
+            private final long[] mask;
+            private final int uuid;
+
+            /**
+             * @param positions positions of the {@code columns} in the result set
+             */
+            Hydrator(Field[] columns, int[] positions) {
+                this.columns = columns;
+                this.positions = positions;
+                adapters = new Adapter[columns.length];
+                mask = new long[(fields.length + 63) >>> 6];
+                int uuid = -1;
+                for (int i = 0; i < columns.length; i++) {
+                    adapters[i] = columns[i].getAdapter();
+                    mask[columns[i].getIndex() >>> 6] |= 1L << columns[i].getIndex();
+                    if (columns[i] == getUuid())
+                        uuid = positions[i];
+                }
+                this.uuid = uuid;
+            }
+
+            Table getTable() {
+                return Table.this;
+            }
+
+            /**
+             * Copies the columns of the current row into a new object which is persistent and clean,
+             * unless the current {@link Session} already has the object of the row
+             */
+            OBJ read(ResultSet rs) throws SQLException {
+                final Session session = Session.current();
+                if (session != null && uuid > 0) {
+                    final OBJ known = session.get(rs.getLong(uuid));
+                    if (known != null)
+                        return known;
+                }
+                final OBJ obj = create();
+                for (int i = 0; i < columns.length; i++)
+                    if (columns[i].getSlot() < 0)
+                        obj.setValue(columns[i], adapters[i].getValue(columns[i], rs, positions[i]));
+                    else {
+                        final long value = adapters[i].getPrimitive(columns[i], rs, positions[i]);
+                        if (!rs.wasNull())
+                            obj.setPrimitive(columns[i], value);
+                    }
+                obj.setRead(mask);
+                obj.setPersistent();
+                obj.clean();
+                if (session != null && obj.getUuid().get() != null)
+                    session.put(obj);
+                return obj;
+            }
+
+            /**
+             * Copies the columns of the current row into a new persistent row of the batch
+             */
+            void read(ResultSet rs, RowBatch<?> rows) throws SQLException {
+                final int row = rows.next();
+                for (int i = 0; i < columns.length; i++)
+                    if (columns[i].getSlot() < 0)
+                        rows.setValue(row, columns[i], adapters[i].getValue(columns[i], rs, positions[i]));
+                    else {
+                        final long value = adapters[i].getPrimitive(columns[i], rs, positions[i]);
+                        if (!rs.wasNull())
+                            rows.setPrimitive(row, columns[i], value);
+                    }
+                rows.setPersistent(row, true);
+            }
+        }
+
+        /**
+         * Reads all but {@link DEFERRED} columns of the row with the statement cached by the connection
+         *
+         * @return the object, or null if there is no such row
+         */
+        OBJ load(Identity id) throws SQLException {
+            if (cache != null) {
+                final Object[] values = cache.get(id.longValue());
+                if (values != null)
+                    return hydrate(values);
+            }
+            final BitSet eager = getEager();
+            final long stamp = cache == null ? 0 : cache.stamp(id.longValue());
+            final java.sql.Connection connection = db.getConnection();
+            try {
+                final Statements.Lease lease = Statements.of(connection).prepare(this, Statements.Operation.SELECT, eager);
+                try {
+                    lease.getStatement().setLong(1, id.longValue());
+                    final ResultSet rs = lease.getStatement().executeQuery();
+                    try {
+                        if (!rs.next())
+                            return null;
+                        final OBJ obj = getHydrator(eager).read(rs);
+                        if (cache != null && !obj.isDirty())
+                            cache.put(id.longValue(), stamp, snapshot(obj));
+                        return obj;
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    lease.close();
+                }
+            } finally {
+                connection.close();
+            }
+        }
+
+        /**
+         * Loads the rows with chunked {@code IN (...)} queries; rows in the {@link Cache} are not queried, and the
+         * objects of every chunk make a {@link Group}
+         *
+         * @return the objects by raw identity; missing rows are absent
+         */
+        Map<Long, OBJ> load(Collection<Long> ids) throws SQLException {
+            final Map<Long, OBJ> loaded = new HashMap<Long, OBJ>();
+            final List<Long> missing = new ArrayList<Long>();
+            for (Long id : ids) {
+                final Object[] values = cache == null ? null : cache.get(id);
+                if (values != null)
+                    loaded.put(id, hydrate(values));
+                else
+                    missing.add(id);
+            }
+            if (missing.isEmpty())
+                return loaded;
+            final BitSet eager = getEager();
+            final Hydrator hydrator = getHydrator(eager);
+            final java.sql.Connection connection = db.getConnection();
+            try {
+                for (int from = 0; from < missing.size(); from += Group.CHUNK) {
+                    final List<Long> chunk = missing.subList(from, Math.min(from + Group.CHUNK, missing.size()));
+                    final StringBuilder in = new StringBuilder();
+                    for (int i = 0; i < chunk.size(); i++)
+                        in.append(i == 0 ? "?" : ", ?");
+                    final java.sql.PreparedStatement ps = connection.prepareStatement(String.format("SELECT %s FROM %s WHERE %s IN (%s)",
+                            getColumnList(eager, ""), getSource(eager, true), getUuid().getName(), in));
+                    final Map<Long, Long> stamps = new HashMap<Long, Long>();
+                    try {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            ps.setLong(i + 1, chunk.get(i));
+                            if (cache != null)
+                                stamps.put(chunk.get(i), cache.stamp(chunk.get(i)));
+                        }
+                        final ResultSet rs = ps.executeQuery();
+                        try {
+                            final Group group = new Group(this);
+                            while (rs.next()) {
+                                final OBJ obj = hydrator.read(rs);
+                                group.add(obj);
+                                if (cache != null && !obj.isDirty()) {
+                                    final Long stamp = stamps.get(obj.getUuid().get().longValue());
+                                    if (stamp != null)
+                                        cache.put(obj.getUuid().get().longValue(), stamp, snapshot(obj));
+                                }
+                                loaded.put(obj.getUuid().get().longValue(), obj);
+                            }
+                        } finally {
+                            rs.close();
+                        }
+                    } finally {
+                        ps.close();
+                    }
+                }
+            } finally {
+                connection.close();
+            }
+            return loaded;
+        }
+
+        /**
+         * @return the shared cache of the table, or null if it is not {@link CACHE cached}
+         */
+        public Cache getCache() {
+            return cache;
+        }
+
+        /**
+         * @return copy of the eager column values; references are kept as identities, never as objects
+         */
+        private Object[] snapshot(OBJ obj) {
+            final BitSet eager = getEager();
+            final Object[] values = new Object[fields.length];
+            for (int i = eager.nextSetBit(0); i >= 0; i = eager.nextSetBit(i + 1)) {
+                final Object value = obj.getValue(fields[i]);
+                values[i] = value instanceof Reference ? ((Reference) value).getIdentity() : copy(value);
+            }
+            return values;
+        }
+
+        /**
+         * Creates a persistent and clean object from the cached values and enlists it into the current session
+         */
+        private OBJ hydrate(Object[] values) {
+            final BitSet eager = getEager();
+            final OBJ obj = create();
+            for (int i = eager.nextSetBit(0); i >= 0; i = eager.nextSetBit(i + 1)) {
+                final Object value = values[i];
+                obj.setValue(fields[i], value instanceof Identity && i != getUuid().getIndex() ? new Reference((Identity) value) : copy(value));
+            }
+            obj.setRead(getHydrator(eager).mask);
+            obj.setPersistent();
+            obj.clean();
+            final Session session = Session.current();
+            if (session != null)
+                session.put(obj);
+            return obj;
+        }
+
+        private Object copy(Object value) {
+            return value instanceof Date ? ((Date) value).clone() : value;
+        }
+
+        /**
+         * @return all columns of the table; must not be modified
+         */
+        BitSet getColumns() {
+            return columns;
+        }
+
+        /**
+         * @return all but {@link DEFERRED} columns of the table; must not be modified
+         */
+        BitSet getEager() {
+            if (eager == null) {
+                final BitSet eager = (BitSet) columns.clone();
+                for (Field field : fields)
+                    if (field.isDeferred())
+                        eager.clear(field.getIndex());
+                this.eager = eager;
+            }
+            return eager;
+        }
+
+        /**
+         * @return the columns of {@link OBJ#getKey()} followed by {@link #getUuid() uuid}, which make the order of
+         * the rows total
+         */
+        Field[] getOrder() {
+            Field[] order = this.order;
+            if (order == null) {
+                final List<Field> list = new ArrayList<Field>();
+                for (OBJ.FIELD field : create().getKey()) {
+                    final Field column = fields[field.index];
+                    if (!column.isRequired() || column.isDeferred())
+                        throw new IllegalArgumentException(getName() + " key column " + column.getName() + " should be mandatory and not deferred");
+                    if (!list.contains(column))
+                        list.add(column);
+                }
+                if (!list.contains(getUuid()))
+                    list.add(getUuid());
+                this.order = order = list.toArray(new Field[list.size()]);
+            }
+            return order;
+        }
+
+        /**
+         * @return the column of {@link OBJ#getUuid()}, which is the first FIELD initialized in every object
+         */
+        public Field getUuid() {
+            return fields[0];
+        }
     }
 
     public class Field {
-        final java.lang.reflect.Field field;
+        volatile java.lang.reflect.Field field;
+        private final Descriptor descriptor;
+        private final Descriptor.Column column;
+        private final Primitive primitive;
+        private int slot = -1;
+        private Adapter adapter;
         private final Class<? extends OBJ.FIELD> type;
         private final int index;
         private final Class target;
@@ -192,6 +1193,8 @@ public class Metadata implements Iterable<Metadata.Table> {
 
         public Field(final java.lang.reflect.Field field, final Class target, final int index) {
             this.field = field;
+            this.descriptor = null;
+            this.column = null;
             this.target = target;
             this.index = index;
             name = (field.getAnnotation(NAME.class) == null || "".equals(field.getAnnotation(NAME.class).value())) ? field.getName() : field.getAnnotation(NAME.class).value();
@@ -200,13 +1203,39 @@ public class Metadata implements Iterable<Metadata.Table> {
             isTransient = Modifier.isTransient(field.getModifiers());
             length = field.getAnnotation(LENGTH.class) == null ? 0 : field.getAnnotation(LENGTH.class).value();
             type = (Class<? extends OBJ.FIELD>) field.getType();
+            primitive = Primitive.of(type);
             pattern = field.getAnnotation(PATTERN.class)== null ? "".equals(field.getType().getAnnotation(Type.class).pattern()) ? null : field.getType().getAnnotation(Type.class).pattern() : field.getAnnotation(PATTERN.class).value();
         }
 
+        /**
+         * Takes the definition from a generated {@link Descriptor}; the reflective field is looked up on first use
+         */
+        Field(final Descriptor descriptor, final Descriptor.Column column) {
+            this.descriptor = descriptor;
+            this.column = column;
+            target = column.target;
+            index = column.index;
+            name = column.name;
+            isRequired = column.isRequired;
+            isDeferred = column.isDeferred;
+            isTransient = column.isTransient;
+            length = column.length;
+            type = column.type;
+            primitive = Primitive.of(type);
+            pattern = column.pattern;
+        }
+
         public boolean isTransient() {
             return isTransient;
         }
 
+        /**
+         * @return the class a REF or CODEREF column points to, or null
+         */
+        Class getTarget() {
+            return target;
+        }
+
         public String getPattern() {
             return pattern;
         }
@@ -223,6 +1252,20 @@ public class Metadata implements Iterable<Metadata.Table> {
             return index;
         }
 
+        /**
+         * @return the position of the value among the primitive values of the object, or -1 if it is kept boxed
+         */
+        int getSlot() {
+            return slot;
+        }
+
+        /**
+         * @return the primitive the value is kept as, or null
+         */
+        Primitive getPrimitive() {
+            return primitive;
+        }
+
         boolean isRequired() {
             return isRequired;
         }
@@ -235,8 +1278,32 @@ public class Metadata implements Iterable<Metadata.Table> {
             return length;
         }
 
-        @SuppressWarnings("UnusedDeclaration")
+        /**
+         * @return the FIELD of the object, by the generated accessor of its {@link Descriptor} if there is one
+         */
+        OBJ.FIELD get(OBJ obj) {
+            if (descriptor != null) {
+                final OBJ.FIELD field = descriptor.getField(obj, index);
+                if (field != null)
+                    return field;
+            }
+            try {
+                return (OBJ.FIELD) getReflection().get(obj);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
         public java.lang.reflect.Field getReflection() {
+            java.lang.reflect.Field field = this.field;
+            if (field == null)
+                try {
+                    field = column.declaringClass.getDeclaredField(column.field);
+                    field.setAccessible(true);
+                    this.field = field;
+                } catch (NoSuchFieldException e) {
+                    throw new IllegalStateException("stale descriptor of " + column.declaringClass.getName() + '.' + column.field, e);
+                }
             return field;
         }
 
@@ -256,12 +1323,18 @@ public class Metadata implements Iterable<Metadata.Table> {
         }
 
         private String getColumnDefinition() {
-            final Adapter adapter = db.adapters.get(getType());
-            try {
-                return adapter.getSchemaType(this);
-            } catch (Exception e) {
-                throw new RuntimeException("no adapter for " + getType());
+            return getAdapter().getSchemaType(this);
+        }
+
+        Adapter getAdapter() {
+            Adapter adapter = this.adapter;
+            if (adapter == null) {
+                adapter = db.adapters.get(getType());
+                if (adapter == null)
+                    throw new RuntimeException("no adapter for " + getType());
+                this.adapter = adapter;
             }
+            return adapter;
         }
     }
 }
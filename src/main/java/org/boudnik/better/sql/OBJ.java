@@ -5,11 +5,12 @@
 package org.boudnik.better.sql;
 
 
-import java.io.File;
-import java.io.Serializable;
+import java.io.*;
 import java.sql.Date;
+import java.sql.SQLException;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.util.Arrays;
 
 /**
  * @author shr
@@ -18,25 +19,47 @@ import java.sql.Timestamp;
 @TABLE(0)
 public class OBJ implements Serializable {
     private final Object[] values;
-    private final transient Metadata.Table meta;
-    private transient int read;
-    private transient int dirty;
+    private final long[] primitives;
+    private final long[] present;
+    private transient Metadata.Table meta;
+    private transient long[] read;
+    private transient long[] dirty;
+    private transient boolean persistent;
+    private transient Group group;
+    private transient int modifications;
 
-    //todo make another derived class with this field
-//    private final UUID uuid = new UUID();
     protected int length = 0;
+    private final UUID uuid = new UUID();
 
-    //todo: remove ASAP. for compatibility only
+    /**
+     * binds the object to the {@link Metadata} which creates it, or of the current {@link Session}, or else of the
+     * only database which maps the class; see {@link #OBJ(Metadata)} when several databases map it
+     */
     protected OBJ() {
-        this(null);
+        this(null, true);
     }
 
     protected OBJ(final Metadata metadata) {
+        this(metadata, false);
+    }
+
+    /**
+     * @param bind whether to bind the object as {@link #OBJ()} does rather than to the metadata
+     */
+    private OBJ(Metadata metadata, boolean bind) {
+        if (bind)
+            metadata = Metadata.of(getClass());
         if (metadata == null) {
             meta = null;
             values = null;
+            primitives = null;
+            read = dirty = present = null;
         } else {
             values = new Object[(meta = metadata.get(getClass())).fields.length];
+            primitives = new long[meta.getPrimitives()];
+            read = new long[(values.length + 63) >>> 6];
+            dirty = new long[read.length];
+            present = new long[read.length];
         }
     }
 
@@ -65,14 +88,109 @@ public class OBJ implements Serializable {
     public String toString() {
         final StringBuilder sb = new StringBuilder();
         sb.append(getClass().getSimpleName()).append("@").append(hashCode());
-        for (Object value : values) {
-            sb.append("|").append(value);
+        for (int i = 0; i < values.length; i++) {
+            sb.append("|").append(load(i));
         }
         return sb.toString();
     }
 
+    /**
+     * Queues INSERT of a new object, or UPDATE of the dirty columns of a persistent one, into the current
+     * {@link Batch}, or writes it at once if no batch is open on this thread. Within a {@link UnitOfWork} the object
+     * is only registered, to be written on {@link UnitOfWork#commit()}.
+     */
     public void save() {
-        System.out.println("OBJ.save");
+        try {
+            Batch.save(this);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    void setPersistent() {
+        persistent = true;
+    }
+
+    public boolean isDirty() {
+        for (long word : dirty)
+            if (word != 0)
+                return true;
+        return false;
+    }
+
+    long[] getDirty() {
+        return dirty;
+    }
+
+    void clean() {
+        Arrays.fill(dirty, 0);
+    }
+
+    /**
+     * @return number of changes of values so far, which tells whether the object changed since a moment
+     */
+    int getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Brings back the state saved before a write which did not happen
+     */
+    void restore(boolean persistent, long[] dirty) {
+        this.persistent = persistent;
+        System.arraycopy(dirty, 0, this.dirty, 0, dirty.length);
+    }
+
+    boolean isRead(Metadata.Field field) {
+        return (read[field.getIndex() >>> 6] & (1L << field.getIndex())) != 0;
+    }
+
+    void setRead(Metadata.Field field) {
+        read[field.getIndex() >>> 6] |= (1L << field.getIndex());
+    }
+
+    /**
+     * marks the columns of the mask, one bit per index, as read
+     */
+    void setRead(long[] mask) {
+        for (int i = 0; i < mask.length; i++)
+            read[i] |= mask[i];
+    }
+
+    /**
+     * marks all columns as read, i.e. the values in memory are the values in the database
+     */
+    void setRead() {
+        Arrays.fill(read, -1L);
+    }
+
+    /**
+     * Makes the object show other values, as {@link RowBatch.View} does: the columns of the mask are read, none is dirty
+     */
+    void reset(long[] mask, boolean persistent) {
+        System.arraycopy(mask, 0, read, 0, read.length);
+        this.persistent = persistent;
+        group = null;
+        clean();
+    }
+
+    /**
+     * @param group objects of the same load, whose unread columns are fetched together
+     */
+    void setGroup(Group group) {
+        this.group = group;
+    }
+
+    private void fetch(Metadata.Field field) {
+        try {
+            (group != null ? group : new Group(meta).add(this)).fetch(field);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public Metadata.Table getTable() {
@@ -80,17 +198,111 @@ public class OBJ implements Serializable {
     }
 
     protected void setValue(Metadata.Field field, Object value) {
-        values[field.getIndex()] = value;
+        store(field.getIndex(), value);
     }
 
     protected Object getValue(Metadata.Field field) {
-        return values[field.getIndex()];
+        return load(field.getIndex());
+    }
+
+    void setPrimitive(Metadata.Field field, long value) {
+        primitives[field.getSlot()] = value;
+        present[field.getIndex() >>> 6] |= 1L << field.getIndex();
+    }
+
+    long getPrimitive(Metadata.Field field) {
+        return primitives[field.getSlot()];
+    }
+
+    boolean isNull(Metadata.Field field) {
+        return isNull(field.getIndex());
+    }
+
+    /**
+     * @return the slot of the column among {@link #primitives}, or -1 if its value is kept boxed in {@link #values}
+     */
+    private int slot(int index) {
+        final Metadata.Field field = meta.fields[index];
+        return field == null ? -1 : field.getSlot();
+    }
+
+    private boolean isNull(int index) {
+        return slot(index) < 0 ? values[index] == null : (present[index >>> 6] & (1L << index)) == 0;
+    }
+
+    private Object load(int index) {
+        final int slot = slot(index);
+        if (slot < 0)
+            return values[index];
+        return isNull(index) ? null : meta.fields[index].getPrimitive().box(primitives[slot]);
+    }
+
+    private void store(int index, Object value) {
+        final int slot = slot(index);
+        if (slot < 0)
+            values[index] = value;
+        else if (value == null)
+            present[index >>> 6] &= ~(1L << index);
+        else {
+            primitives[slot] = meta.fields[index].getPrimitive().unbox(value);
+            present[index >>> 6] |= 1L << index;
+        }
     }
 
     public UUID getUuid() {
-        return null;
-//todo make another derived class with this field
-//        return uuid;
+        return uuid;
+    }
+
+    FIELD getField(Metadata.Field field) {
+        return field.get(this);
+    }
+
+    /**
+     * writes CODEREF columns as the ids of their code objects, since ordinals differ from one JVM to another
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        final long[] primitives = this.primitives == null ? null : this.primitives.clone();
+        if (meta != null)
+            for (Metadata.Field field : meta.fields)
+                if (isCode(field))
+                    primitives[field.getSlot()] = 0;
+        fields.put("values", values);
+        fields.put("primitives", primitives);
+        fields.put("present", present);
+        fields.put("length", length);
+        fields.put("uuid", uuid);
+        out.writeFields();
+        if (meta != null)
+            for (Metadata.Field field : meta.fields)
+                if (isCode(field))
+                    out.writeObject(isNull(field) ? null : PS.getInstance().getCodeObject((int) getPrimitive(field)).getObjectId());
+    }
+
+    /**
+     * binds the object as {@link #OBJ()} does; it comes back neither persistent nor dirty, with nothing read
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (values == null)
+            return;
+        meta = Metadata.of(getClass()).get(getClass());
+        read = new long[present.length];
+        dirty = new long[present.length];
+        for (Metadata.Field field : meta.fields)
+            if (isCode(field)) {
+                final String id = (String) in.readObject();
+                if (id == null)
+                    continue;
+                final CodeObject code = PS.getInstance().getCodeObject(id);
+                if (code == null)
+                    throw new InvalidObjectException("no code object " + id);
+                primitives[field.getSlot()] = code.getOrdinal();
+            }
+    }
+
+    private static boolean isCode(Metadata.Field field) {
+        return field != null && field.getSlot() >= 0 && CODEREF.class.isAssignableFrom(field.getType());
     }
 
     public abstract class FIELD<T> implements Data<T>, Serializable {
@@ -100,7 +312,7 @@ public class OBJ implements Serializable {
         }
 
         protected FIELD(final T value) {
-            set(value);
+            setValue(value);
         }
 
         @SuppressWarnings("UnusedDeclaration")
@@ -111,42 +323,83 @@ public class OBJ implements Serializable {
         abstract void check(Metadata.Field field);
 
         public void setValue(Object value) {
-            values[index] = value;
+            store(index, value);
+            setRead();
+            setDirty();
+        }
+
+        /**
+         * @return the value in memory; a column of a persistent object which was not read yet,
+         * e.g. a {@link DEFERRED} one, is fetched first
+         */
+        public Object getValue() {
+            if (persistent && !isRead())
+                fetch(getMeta());
+            return load(index);
+        }
+
+        /**
+         * @return whether the value is null, without boxing it
+         */
+        public boolean isNull() {
+            if (persistent && !isRead())
+                fetch(getMeta());
+            return OBJ.this.isNull(index);
+        }
+
+        /**
+         * @return the unboxed value of a {@link Primitive} column
+         * @throws NullPointerException if the value is null
+         */
+        long getPrimitive() {
+            if (isNull())
+                throw new NullPointerException(getMeta().getName() + " is null");
+            final int slot = slot(index);
+            return slot < 0 ? getMeta().getPrimitive().unbox(values[index]) : primitives[slot];
+        }
+
+        void setPrimitive(long value) {
+            final int slot = slot(index);
+            if (slot < 0)
+                values[index] = getMeta().getPrimitive().box(value);
+            else {
+                primitives[slot] = value;
+                present[index >>> 6] |= 1L << index;
+            }
+            setRead();
+            setDirty();
         }
 
         public void set(final T value) {
             if (getMeta().isRequired() && value == null)
                 throw new NullPointerException();
-            values[index] = value;
+            setValue(value);
         }
 
         public T get() {
             //noinspection unchecked
-            return (T) values[index];
+            return (T) getValue();
         }
 
         Class getTarget() {
             return null;
         }
 
-        @SuppressWarnings("UnusedDeclaration")
         boolean isRead() {
-            return (read & (1 << index)) != 0;
+            return (read[index >>> 6] & (1L << index)) != 0;
         }
 
-        @SuppressWarnings("UnusedDeclaration")
         void setRead() {
-            read |= (1 << index);
+            read[index >>> 6] |= (1L << index);
         }
 
-        @SuppressWarnings("UnusedDeclaration")
         boolean isDirty() {
-            return (dirty & (1 << index)) != 0;
+            return (dirty[index >>> 6] & (1L << index)) != 0;
         }
 
-        @SuppressWarnings("UnusedDeclaration")
         void setDirty() {
-            dirty |= (1 << index);
+            dirty[index >>> 6] |= (1L << index);
+            modifications++;
         }
 
         public boolean isRequired() {
@@ -185,6 +438,37 @@ public class OBJ implements Serializable {
         protected Metadata.Field getMeta() {
             return meta.fields[index];
         }
+
+        Metadata.Table getTable() {
+            return meta;
+        }
+
+        /**
+         * @return the value as the object keeps it
+         */
+        Object toValue(T value) {
+            return value;
+        }
+
+        /**
+         * @return condition of {@link Query}; {@code eq(null)} is {@code IS NULL}
+         */
+        public Query.Condition eq(T value) {
+            return value == null ? Query.isNull(this) : new Query.Compare(this, Query.Operator.EQ, toValue(value));
+        }
+
+        public Query.Condition ne(T value) {
+            return value == null ? Query.isNotNull(this) : new Query.Compare(this, Query.Operator.NE, toValue(value));
+        }
+
+        @SafeVarargs
+        public final Query.Condition in(T... values) {
+            final Object[] converted = new Object[values.length];
+            for (int i = 0; i < values.length; i++)
+                if ((converted[i] = values[i] == null ? null : toValue(values[i])) == null)
+                    throw new NullPointerException(getMeta().getName() + " IN null");
+            return new Query.In(this, converted);
+        }
     }
 
     public abstract class ComparableFIELD<T> extends FIELD<T> implements Comparable<FIELD<T>> {
@@ -196,11 +480,32 @@ public class OBJ implements Serializable {
         }
 
         public int compareTo(FIELD<T> o) {
+            if (slot(index) >= 0 && o.getMeta().getSlot() >= 0) {
+                final boolean n1 = isNull();
+                final boolean n2 = o.isNull();
+                return n1 ? n2 ? 0 : -1 : n2 ? 1 : Long.compare(getPrimitive(), o.getPrimitive());
+            }
             //noinspection unchecked
             Comparable<T> o1 = (Comparable<T>) get();
             T o2 = o.get();
             return o1 == null ? o2 == null ? 0 : -1 : o2 == null ? 1 : o1.compareTo(o2);
         }
+
+        public Query.Condition lt(T value) {
+            return new Query.Compare(this, Query.Operator.LT, toValue(value));
+        }
+
+        public Query.Condition le(T value) {
+            return new Query.Compare(this, Query.Operator.LE, toValue(value));
+        }
+
+        public Query.Condition gt(T value) {
+            return new Query.Compare(this, Query.Operator.GT, toValue(value));
+        }
+
+        public Query.Condition ge(T value) {
+            return new Query.Compare(this, Query.Operator.GE, toValue(value));
+        }
     }
 
     @Type(required = true)
@@ -215,6 +520,17 @@ public class OBJ implements Serializable {
     public class DATE extends ComparableFIELD<Date> {
         void check(final Metadata.Field meta) {
         }
+
+        /**
+         * @return milliseconds since the epoch
+         */
+        public long getTime() {
+            return getPrimitive();
+        }
+
+        public void setTime(long time) {
+            setPrimitive(time);
+        }
     }
 
     @Type(required = false)
@@ -233,12 +549,28 @@ public class OBJ implements Serializable {
     public class INT extends ComparableFIELD<Integer> {
         void check(final Metadata.Field meta) {
         }
+
+        public int getInt() {
+            return (int) getPrimitive();
+        }
+
+        public void setInt(int value) {
+            setPrimitive(value);
+        }
     }
 
     @Type(required = false)
     public class LONG extends ComparableFIELD<Long> {
         void check(final Metadata.Field meta) {
         }
+
+        public long getLong() {
+            return getPrimitive();
+        }
+
+        public void setLong(long value) {
+            setPrimitive(value);
+        }
     }
 
     @Type(required = false)
@@ -259,9 +591,26 @@ public class OBJ implements Serializable {
             super.setValue(value == null ? null : new Reference<T>(value));
         }
 
+        Object toValue(T value) {
+            return value == null ? null : new Reference<T>(value);
+        }
+
+        /**
+         * @return the target; the first access resolves the references of this FIELD of all objects hydrated
+         * so far by the same load, see {@link Reference#resolve(java.util.Collection, REF[])}
+         */
         public T get() {
             //noinspection unchecked
-            return ((Reference<T>) values[index]).get();
+            final Reference<T> reference = (Reference<T>) getValue();
+            if (reference == null)
+                return null;
+            if (!reference.isResolved() && group != null)
+                try {
+                    group.resolve(getMeta());
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            return reference.get(meta.getMetadata());
         }
 
         void check(final Metadata.Field meta) {
@@ -269,7 +618,7 @@ public class OBJ implements Serializable {
 
         public String toString() {
             StringBuilder sb = new StringBuilder();
-            return sb.append(getMeta().getTitle()).append(" ").append(values[index]).toString();
+            return sb.append(getMeta().getTitle()).append(" ").append(getValue()).toString();
         }
 
         Class getTarget() {
@@ -286,12 +635,37 @@ public class OBJ implements Serializable {
         }
 
         public void set(T value) {
-            setValue(value == null ? null : value.getObjectId());
+            if (value == null)
+                setValue(null);
+            else
+                setPrimitive(value.getOrdinal());
+        }
+
+        Object toValue(T value) {
+            return value;
         }
 
         public T get() {
             //noinspection unchecked
-            return (T) PS.getInstance().getCodeObject((String) values[index]);
+            return isNull() ? null : (T) PS.getInstance().getCodeObject((int) getPrimitive());
+        }
+
+        /**
+         * @return whether the column holds the object, comparing ordinals
+         */
+        public boolean is(T value) {
+            return value == null ? isNull() : !isNull() && getPrimitive() == value.getOrdinal();
+        }
+
+        /**
+         * orders by id, which is the order of the database unless {@link DB#setCodeDictionary} makes it keep codes
+         */
+        public int compareTo(FIELD<T> o) {
+            if (!isNull() && !o.isNull() && getPrimitive() == o.getPrimitive())
+                return 0;
+            final T o1 = get();
+            final T o2 = o.get();
+            return o1 == null ? o2 == null ? 0 : -1 : o2 == null ? 1 : o1.compareTo(o2);
         }
 
         void check(final Metadata.Field meta) {
@@ -309,6 +683,14 @@ public class OBJ implements Serializable {
             super(false);
         }
 
+        public boolean getBoolean() {
+            return getPrimitive() != 0;
+        }
+
+        public void setBoolean(boolean value) {
+            setPrimitive(value ? 1 : 0);
+        }
+
         void check(final Metadata.Field meta) {
             if (!meta.isRequired())
                 throw new Metadata.IllegalNullable(meta.field);
@@ -329,6 +711,12 @@ public class OBJ implements Serializable {
                 super.set(value);
         }
 
+        /**
+         * @param pattern with {@code %} and {@code _} wildcards
+         */
+        public Query.Condition like(String pattern) {
+            return new Query.Compare(this, Query.Operator.LIKE, pattern);
+        }
     }
 
     @Type(required = false)
@@ -347,6 +735,9 @@ public class OBJ implements Serializable {
                 super.set(value);
         }
 
+        public Query.Condition like(String pattern) {
+            return new Query.Compare(this, Query.Operator.LIKE, pattern);
+        }
     }
 
     @Type(required = false)
@@ -361,12 +752,33 @@ public class OBJ implements Serializable {
                 super.set(value);
         }
 
+        /**
+         * @return the text without materializing it, read straight from the database unless it is already in memory
+         */
+        public Reader openReader() throws SQLException {
+            if (!persistent || isRead()) {
+                final String value = (String) values[index];
+                return value == null ? null : new StringReader(value);
+            }
+            return Group.openReader(OBJ.this, getMeta());
+        }
     }
 
     @Type(deferred = true, required = false)
     public class IMAGE extends FIELD<File> {
         void check(final Metadata.Field meta) {
         }
+
+        /**
+         * @return the content without materializing it, read straight from the database unless it is already in memory
+         */
+        public InputStream openStream() throws SQLException, FileNotFoundException {
+            if (!persistent || isRead()) {
+                final File value = (File) values[index];
+                return value == null ? null : new FileInputStream(value);
+            }
+            return Group.openStream(OBJ.this, getMeta());
+        }
     }
 
 }
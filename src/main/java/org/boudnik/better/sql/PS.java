@@ -4,16 +4,23 @@
 
 package org.boudnik.better.sql;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Registry of {@link CodeObject}s. Every code object gets the next dense ordinal as it is constructed, so that
+ * {@link OBJ.CODEREF} keeps the ordinal in memory and turns it back into the object with an array access.
+ * Registration is synchronized; lookups are not.
+ *
  * @author shr
  * @since Nov 22, 2005 1:58:23 AM
  */
 public class PS {
     private static PS ourInstance = new PS();
-    private static final Map<String, CodeObject> map = new HashMap<String, CodeObject>();
+    private static final Map<String, CodeObject> map = new ConcurrentHashMap<String, CodeObject>();
+    private static volatile CodeObject[] ordinals = new CodeObject[64];
+    private static int count;
 
     public static PS getInstance() {
         return ourInstance;
@@ -27,7 +34,30 @@ public class PS {
         return map.get(id);
     }
 
-    void storeCodeObject(CodeObject obj) {
+    /**
+     * @throws IllegalArgumentException if no code object has the ordinal
+     */
+    CodeObject getCodeObject(int ordinal) {
+        final CodeObject[] ordinals = PS.ordinals;
+        final CodeObject obj = ordinal >= 0 && ordinal < ordinals.length ? ordinals[ordinal] : null;
+        if (obj == null)
+            throw new IllegalArgumentException("no code object #" + ordinal);
+        return obj;
+    }
+
+    /**
+     * @return the ordinal of the object
+     * @throws IllegalArgumentException if another object has the same id
+     */
+    synchronized int storeCodeObject(CodeObject obj) {
+        if (map.containsKey(obj.getObjectId()))
+            throw new IllegalArgumentException("duplicate code object " + obj.getObjectId());
+        CodeObject[] ordinals = PS.ordinals;
+        if (count == ordinals.length)
+            ordinals = Arrays.copyOf(ordinals, count * 2);
+        ordinals[count] = obj;
+        PS.ordinals = ordinals;
         map.put(obj.getObjectId(), obj);
+        return count++;
     }
 }
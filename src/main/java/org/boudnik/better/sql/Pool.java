@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.PasswordAuthentication;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of physical connections of one {@link DB}.
+ * <p>
+ * {@link #borrow()} hands out a proxy whose {@link Connection#close()} returns the physical connection back;
+ * idle connections are validated on borrow and closed by a background evictor once they stay idle longer than
+ * {@link #getIdleTimeout()}, keeping at least {@link #getMinSize()} of them open.
+ *
+ * @author shr
+ * @since Oct 17, 2026 11:40:05 AM
+ */
+public class Pool {
+    private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "better-sql pool evictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final DB db;
+    private final BlockingDeque<Physical> idle = new LinkedBlockingDeque<Physical>();
+    private final Permits permits;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile int minSize = 0;
+    private volatile int maxSize = 10;
+    private volatile long idleTimeout = TimeUnit.MINUTES.toMillis(10);
+    private volatile long borrowTimeout = TimeUnit.SECONDS.toMillis(30);
+    private volatile int validationTimeout = 5;
+    private ScheduledFuture<?> eviction;
+    private volatile boolean loaded;
+    private volatile boolean closed;
+
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    Pool(DB db) {
+        this.db = db;
+        permits = new Permits(maxSize);
+        schedule();
+    }
+
+    /**
+     * @return a connection which must be closed by the caller to be returned to the pool
+     * @throws SQLTimeoutException if no connection became available within {@link #getBorrowTimeout()}
+     */
+    public Connection borrow() throws SQLException {
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException(String.format("no connection to %s within %d ms", db.getUrl(), borrowTimeout));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(e.getMessage(), e);
+        }
+        final long wait = System.nanoTime() - start;
+        waitNanos.addAndGet(wait);
+        long max = maxWaitNanos.get();
+        while (wait > max && !maxWaitNanos.compareAndSet(max, wait))
+            max = maxWaitNanos.get();
+        try {
+            final Physical physical = take();
+            borrowed.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class}, new Handler(physical));
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return statement cache of the physical connection behind a borrowed one, null for any other connection
+     */
+    static Statements getStatements(Connection connection) {
+        if (!Proxy.isProxyClass(connection.getClass()))
+            return null;
+        final InvocationHandler handler = Proxy.getInvocationHandler(connection);
+        if (!(handler instanceof Handler) || ((Handler) handler).physical == null)
+            return null;
+        return ((Handler) handler).physical.statements;
+    }
+
+    private Physical take() throws SQLException {
+        for (Physical candidate; (candidate = idle.pollFirst()) != null; ) {
+            if (candidate.connection.isValid(validationTimeout))
+                return candidate;
+            invalid.incrementAndGet();
+            discard(candidate);
+        }
+        return open();
+    }
+
+    private Physical open() throws SQLException {
+        if (!loaded) {
+            try {
+                Class.forName(db.getDriverClass());
+            } catch (ClassNotFoundException e) {
+                throw new SQLException(e.getMessage());
+            }
+            loaded = true;
+        }
+        final PasswordAuthentication authentication = db.getAuthentication();
+        final Connection connection = DriverManager.getConnection(db.getUrl(), authentication.getUserName(), String.valueOf(authentication.getPassword()));
+        size.incrementAndGet();
+        created.incrementAndGet();
+        return new Physical(connection, new Statements(connection, db.getStatementCacheSize(), statementHits, statementMisses));
+    }
+
+    private void giveBack(Physical physical) {
+        try {
+            if (closed || physical.connection.isClosed()) {
+                discard(physical);
+                return;
+            }
+            if (!physical.connection.getAutoCommit()) {
+                physical.connection.rollback();
+                physical.connection.setAutoCommit(true);
+            }
+            physical.since = System.currentTimeMillis();
+            idle.offerFirst(physical);
+        } catch (SQLException e) {
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(Physical physical) {
+        size.decrementAndGet();
+        try {
+            physical.statements.close();
+        } catch (SQLException ignored) {
+        }
+        try {
+            physical.connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Closes connections idle for longer than {@link #getIdleTimeout()} and tops the pool up to {@link #getMinSize()}.
+     */
+    void evict() {
+        final long deadline = System.currentTimeMillis() - idleTimeout;
+        for (Iterator<Physical> iterator = idle.descendingIterator(); iterator.hasNext() && size.get() > minSize; ) {
+            final Physical candidate = iterator.next();
+            if (candidate.since < deadline && idle.removeLastOccurrence(candidate)) {
+                evicted.incrementAndGet();
+                discard(candidate);
+            }
+        }
+        try {
+            while (size.get() < minSize)
+                idle.offerLast(open());
+        } catch (SQLException ignored) {
+            // the database is not reachable yet; next run will try again
+        }
+    }
+
+    private synchronized void schedule() {
+        if (eviction != null)
+            eviction.cancel(false);
+        final long period = Math.max(1000, idleTimeout / 2);
+        eviction = evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evict();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes all idle connections; borrowed ones are closed as soon as they are returned.
+     */
+    public synchronized void close() {
+        closed = true;
+        eviction.cancel(false);
+        for (Physical candidate; (candidate = idle.pollFirst()) != null; )
+            discard(candidate);
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        if (minSize < 0 || minSize > maxSize)
+            throw new IllegalArgumentException("min size should be between 0 and " + maxSize);
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 1 || maxSize < minSize)
+            throw new IllegalArgumentException("max size should be > 0 and >= " + minSize);
+        permits.resize(maxSize - this.maxSize);
+        this.maxSize = maxSize;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout, TimeUnit unit) {
+        this.idleTimeout = unit.toMillis(idleTimeout);
+        schedule();
+    }
+
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    public void setBorrowTimeout(long borrowTimeout, TimeUnit unit) {
+        this.borrowTimeout = unit.toMillis(borrowTimeout);
+    }
+
+    public void setValidationTimeout(int seconds) {
+        this.validationTimeout = seconds;
+    }
+
+    /**
+     * @return number of open physical connections, both idle and borrowed
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public long getBorrowed() {
+        return borrowed.get();
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    public long getInvalid() {
+        return invalid.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getWaitTime(TimeUnit unit) {
+        return unit.convert(waitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return number of {@link Statements#prepare} calls served from the statement caches of all connections
+     */
+    public long getStatementHits() {
+        return statementHits.get();
+    }
+
+    public long getStatementMisses() {
+        return statementMisses.get();
+    }
+
+    public String toString() {
+        return String.format("%s size=%d idle=%d borrowed=%d created=%d evicted=%d invalid=%d timeouts=%d wait=%dms max=%dms statements=%d/%d",
+                db.getUrl(), getSize(), getIdle(), getBorrowed(), getCreated(), getEvicted(), getInvalid(), getTimeouts(),
+                getWaitTime(TimeUnit.MILLISECONDS), getMaxWaitTime(TimeUnit.MILLISECONDS), getStatementHits(), getStatementHits() + getStatementMisses());
+    }
+
+    private static class Physical {
+        private final Connection connection;
+        private final Statements statements;
+        private long since = System.currentTimeMillis();
+
+        private Physical(Connection connection, Statements statements) {
+            this.connection = connection;
+            this.statements = statements;
+        }
+    }
+
+    static class Permits extends Semaphore {
+        Permits(int permits) {
+            super(permits, true);
+        }
+
+        void resize(int delta) {
+            if (delta > 0)
+                release(delta);
+            else
+                reducePermits(-delta);
+        }
+    }
+
+    private class Handler implements InvocationHandler {
+        private Physical physical;
+
+        private Handler(Physical physical) {
+            this.physical = physical;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("close".equals(name) && method.getParameterTypes().length == 0) {
+                if (physical != null) {
+                    final Physical returned = physical;
+                    physical = null;
+                    giveBack(returned);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name) && method.getParameterTypes().length == 0)
+                return physical == null || physical.connection.isClosed();
+            if ("equals".equals(name) && method.getParameterTypes().length == 1)
+                return proxy == args[0];
+            if ("hashCode".equals(name) && method.getParameterTypes().length == 0)
+                return System.identityHashCode(proxy);
+            if (physical == null)
+                throw new SQLException("connection is closed");
+            try {
+                return method.invoke(physical.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * FIELD types whose values {@link OBJ} keeps unboxed in a {@code long} slot, with conversions between the slot,
+ * the boxed value and JDBC.
+ *
+ * @author shr
+ * @since Oct 17, 2026 8:12:26 PM
+ */
+enum Primitive {
+    INT {
+        Object box(long value) {
+            return (int) value;
+        }
+
+        long unbox(Object value) {
+            return ((Number) value).intValue();
+        }
+
+        long read(ResultSet rs, int index) throws SQLException {
+            return rs.getInt(index);
+        }
+
+        void bind(PreparedStatement ps, int index, long value) throws SQLException {
+            ps.setInt(index, (int) value);
+        }
+    },
+    LONG {
+        Object box(long value) {
+            return value;
+        }
+
+        long unbox(Object value) {
+            return ((Number) value).longValue();
+        }
+
+        long read(ResultSet rs, int index) throws SQLException {
+            return rs.getLong(index);
+        }
+
+        void bind(PreparedStatement ps, int index, long value) throws SQLException {
+            ps.setLong(index, value);
+        }
+    },
+    BOOL {
+        Object box(long value) {
+            return value != 0;
+        }
+
+        long unbox(Object value) {
+            return (Boolean) value ? 1 : 0;
+        }
+
+        long read(ResultSet rs, int index) throws SQLException {
+            return rs.getBoolean(index) ? 1 : 0;
+        }
+
+        void bind(PreparedStatement ps, int index, long value) throws SQLException {
+            ps.setBoolean(index, value != 0);
+        }
+
+        String format(long value) {
+            return value != 0 ? "true" : "false";
+        }
+    },
+    /**
+     * milliseconds since the epoch
+     */
+    DATE {
+        Object box(long value) {
+            return new Date(value);
+        }
+
+        long unbox(Object value) {
+            return ((java.util.Date) value).getTime();
+        }
+
+        long read(ResultSet rs, int index) throws SQLException {
+            final Date date = rs.getDate(index);
+            return date == null ? 0 : date.getTime();
+        }
+
+        void bind(PreparedStatement ps, int index, long value) throws SQLException {
+            ps.setDate(index, new Date(value));
+        }
+
+        String format(long value) {
+            return new Date(value).toString();
+        }
+    },
+    /**
+     * ordinal of a {@link CodeObject}, stored as its id
+     */
+    CODE {
+        Object box(long value) {
+            return PS.getInstance().getCodeObject((int) value);
+        }
+
+        long unbox(Object value) {
+            if (value instanceof CodeObject)
+                return ((CodeObject) value).getOrdinal();
+            final CodeObject obj = PS.getInstance().getCodeObject((String) value);
+            if (obj == null)
+                throw new IllegalArgumentException("unknown code object " + value);
+            return obj.getOrdinal();
+        }
+
+        long read(ResultSet rs, int index) throws SQLException {
+            final String id = rs.getString(index);
+            if (id == null)
+                return 0;
+            final CodeObject obj = PS.getInstance().getCodeObject(id);
+            if (obj == null)
+                throw new SQLException("unknown code object " + id);
+            return obj.getOrdinal();
+        }
+
+        void bind(PreparedStatement ps, int index, long value) throws SQLException {
+            ps.setString(index, PS.getInstance().getCodeObject((int) value).getObjectId());
+        }
+
+        String format(long value) {
+            return PS.getInstance().getCodeObject((int) value).getObjectId();
+        }
+    };
+
+    abstract Object box(long value);
+
+    abstract long unbox(Object value);
+
+    /**
+     * @return the value of the column, 0 if it is NULL; {@link ResultSet#wasNull()} tells which
+     */
+    abstract long read(ResultSet rs, int index) throws SQLException;
+
+    abstract void bind(PreparedStatement ps, int index, long value) throws SQLException;
+
+    /**
+     * @return the value as text of bulk loaders, see {@link Loader.Text}
+     */
+    String format(long value) {
+        return Long.toString(value);
+    }
+
+    /**
+     * @return the primitive of the FIELD type, or null if it is kept boxed
+     */
+    static Primitive of(Class<? extends OBJ.FIELD> type) {
+        if (type == OBJ.INT.class)
+            return INT;
+        if (type == OBJ.LONG.class)
+            return LONG;
+        if (type == OBJ.BOOL.class)
+            return BOOL;
+        if (type == OBJ.DATE.class)
+            return DATE;
+        if (type == OBJ.CODEREF.class)
+            return CODE;
+        return null;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Plan which copies the columns of a table a {@link VIEW} class declares into new instances of the class;
+ * it is built once per class and table, see {@link Metadata.Table#getProjection(Class)}.
+ *
+ * @author shr
+ * @since Oct 17, 2026 10:41:09 PM
+ */
+class Projection<V> {
+    private final Constructor<V> constructor;
+    private final java.lang.reflect.Field[] holders;
+    private final Metadata.Field[] columns;
+    private final BitSet selected = new BitSet();
+
+    Projection(Metadata.Table table, Class<V> clazz) {
+        try {
+            constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(clazz.getName() + " has no default constructor", e);
+        }
+        final Metadata.Field[] byIndex = new Metadata.Field[table.getFields().length];
+        final java.lang.reflect.Field[] holderByIndex = new java.lang.reflect.Field[byIndex.length];
+        for (Class<?> type = clazz; type != Object.class; type = type.getSuperclass())
+            for (java.lang.reflect.Field holder : type.getDeclaredFields()) {
+                if (!VIEW.FIELD.class.isAssignableFrom(holder.getType()) || Modifier.isStatic(holder.getModifiers()))
+                    continue;
+                final NAME name = holder.getAnnotation(NAME.class);
+                final Metadata.Field column = find(table, name == null || "".equals(name.value()) ? holder.getName() : name.value());
+                if (column == null)
+                    throw new IllegalArgumentException(clazz.getSimpleName() + "." + holder.getName() + " is not a column of " + table.getName());
+                if (holderByIndex[column.getIndex()] != null)
+                    throw new IllegalArgumentException(clazz.getSimpleName() + "." + holder.getName() + " duplicates " + column.getName());
+                if (!getType(holder).isAssignableFrom(column.getType()))
+                    throw new IllegalArgumentException(clazz.getSimpleName() + "." + holder.getName() + " cannot hold " + column.getName() + " of " + column.getType().getSimpleName());
+                holder.setAccessible(true);
+                holderByIndex[column.getIndex()] = holder;
+                byIndex[column.getIndex()] = column;
+                selected.set(column.getIndex());
+            }
+        if (selected.isEmpty())
+            throw new IllegalArgumentException(clazz.getName() + " has no VIEW fields");
+        holders = new java.lang.reflect.Field[selected.cardinality()];
+        columns = new Metadata.Field[holders.length];
+        for (int i = selected.nextSetBit(0), n = 0; i >= 0; i = selected.nextSetBit(i + 1), n++) {
+            holders[n] = holderByIndex[i];
+            columns[n] = byIndex[i];
+        }
+    }
+
+    /**
+     * @return the FIELD type the holder declares it can take
+     */
+    private static Class<? extends OBJ.FIELD> getType(java.lang.reflect.Field holder) {
+        try {
+            return ((VIEW) holder.getType().newInstance()).getType();
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException(holder.getName() + " should be of a concrete VIEW type", e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(holder.getName() + " should be of a concrete VIEW type", e);
+        }
+    }
+
+    private static Metadata.Field find(Metadata.Table table, String name) {
+        for (Metadata.Field field : table.getFields())
+            if (field.getName().equalsIgnoreCase(name))
+                return field;
+        return null;
+    }
+
+    /**
+     * @return the selected columns; must not be modified
+     */
+    BitSet getColumns() {
+        return selected;
+    }
+
+    /**
+     * Copies the current row, whose columns are at positions 1, 2, ... in index order
+     */
+    V read(ResultSet rs) throws SQLException {
+        final V view;
+        try {
+            view = constructor.newInstance();
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        for (int i = 0; i < columns.length; i++) {
+            final Metadata.Field column = columns[i];
+            final Object value;
+            if (column.getPrimitive() != null) {
+                final long primitive = column.getAdapter().getPrimitive(column, rs, i + 1);
+                value = rs.wasNull() ? null : column.getPrimitive().box(primitive);
+            } else
+                value = column.getAdapter().getValue(column, rs, i + 1);
+            try {
+                VIEW.FIELD holder = (VIEW.FIELD) holders[i].get(view);
+                if (holder == null)
+                    holders[i].set(view, holder = (VIEW.FIELD) holders[i].getType().newInstance());
+                holder.setValue(value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InstantiationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return view;
+    }
+
+    List<V> readAll(ResultSet rs) throws SQLException {
+        final List<V> list = new ArrayList<V>();
+        while (rs.next())
+            list.add(read(rs));
+        return list;
+    }
+}
@@ -0,0 +1,673 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * SELECT of the objects of one table, written with the FIELDs of any object of the class:
+ * <pre>
+ * final Foo foo = new Foo();
+ * for (Foo f : Query.from(Foo.class).where(foo.age.gt(18).and(foo.income.eq(null))).orderBy(foo.name).list())
+ * </pre>
+ * The SQL text depends only on the shape of the query, not on its values, which are bound as parameters through
+ * the {@link Adapter} of each column; it is built once per shape and dialect.
+ *
+ * @author shr
+ * @since Oct 17, 2026 10:02:48 PM
+ */
+public class Query<T extends OBJ> {
+    private final Metadata.Table table;
+    private Condition where;
+    private final List<Metadata.Field> orderBy = new ArrayList<Metadata.Field>();
+    private final List<Boolean> descending = new ArrayList<Boolean>();
+    private int limit;
+
+    private Query(Metadata.Table table) {
+        this.table = table;
+    }
+
+    /**
+     * @return query of the table of the class in the database of the current {@link Session}, or in the only one
+     * which maps the class; see {@link #from(Metadata.Table)} when several databases map it
+     */
+    public static <T extends OBJ> Query<T> from(Class<T> clazz) {
+        return from(Metadata.of(clazz).get(clazz));
+    }
+
+    public static <T extends OBJ> Query<T> from(Metadata.Table table) {
+        if (table == null)
+            throw new IllegalArgumentException("no table");
+        return new Query<T>(table);
+    }
+
+    /**
+     * adds the condition to the previous ones with AND
+     */
+    public Query<T> where(Condition condition) {
+        condition.check(table);
+        where = where == null ? condition : where.and(condition);
+        return this;
+    }
+
+    public Query<T> orderBy(OBJ.FIELD... fields) {
+        for (OBJ.FIELD field : fields)
+            orderBy(field, false);
+        return this;
+    }
+
+    public Query<T> orderByDescending(OBJ.FIELD... fields) {
+        for (OBJ.FIELD field : fields)
+            orderBy(field, true);
+        return this;
+    }
+
+    private void orderBy(OBJ.FIELD field, boolean descending) {
+        check(table, field);
+        orderBy.add(field.getMeta());
+        this.descending.add(descending);
+    }
+
+    /**
+     * @param limit maximum number of rows, 0 for all
+     */
+    public Query<T> limit(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit should be >= 0");
+        this.limit = limit;
+        return this;
+    }
+
+    public Cursor<T> open() throws SQLException {
+        final List<Metadata.Field> fields = new ArrayList<Metadata.Field>();
+        final List<Object> values = new ArrayList<Object>();
+        if (where != null)
+            where.bind(fields, values);
+        return Cursor.open(table, table.getMetadata().getDB().getFetchSize(), getSql(),
+                fields.toArray(new Metadata.Field[fields.size()]), values.toArray());
+    }
+
+    /**
+     * Selects only the columns the {@link VIEW} class declares, see {@link VIEW}; the instances are not
+     * {@link OBJ objects}, so they are neither in a {@link Session} nor in the {@link Cache} of the table
+     */
+    public <V> List<V> select(Class<V> view) throws SQLException {
+        final Projection<V> projection = table.getProjection(view);
+        final List<Metadata.Field> fields = new ArrayList<Metadata.Field>();
+        final List<Object> values = new ArrayList<Object>();
+        if (where != null)
+            where.bind(fields, values);
+        final DB db = table.getMetadata().getDB();
+        final Connection connection = db.getConnection();
+        try {
+            db.prepareForStreaming(connection);
+            final PreparedStatement ps = connection.prepareStatement(getSql(projection.getColumns()), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try {
+                ps.setFetchSize(db.getFetchSize());
+                Cursor.bind(ps, fields.toArray(new Metadata.Field[fields.size()]), values.toArray());
+                final ResultSet rs = ps.executeQuery();
+                try {
+                    return projection.readAll(rs);
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                ps.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Keyset pagination: the rows are ordered by {@link OBJ#getKey()} and {@link OBJ#getUuid() uuid}, and each page
+     * starts right after the last row of the previous one, so its cost does not depend on how far it is
+     *
+     * @param token {@link Page#getNext()} of the previous page, or null for the first one
+     */
+    public Page<T> page(int size, String token) throws SQLException {
+        if (size < 1)
+            throw new IllegalArgumentException("page size should be > 0");
+        if (!orderBy.isEmpty() || limit != 0)
+            throw new IllegalStateException("a page is ordered and limited by the key");
+        final Metadata.Field[] key = table.getOrder();
+        final Query<T> query = new Query<T>(table);
+        query.where = where;
+        if (token != null)
+            query.where(new After(table, key, decode(table, key, token)));
+        for (Metadata.Field field : key) {
+            query.orderBy.add(field);
+            query.descending.add(false);
+        }
+        query.limit = size + 1;
+        final List<T> rows = query.list();
+        if (rows.size() <= size)
+            return new Page<T>(rows, null);
+        rows.remove(size);
+        return new Page<T>(rows, encode(table, key, rows.get(size - 1)));
+    }
+
+    public List<T> list() throws SQLException {
+        final List<T> list = new ArrayList<T>();
+        final Cursor<T> cursor = open();
+        try {
+            while (cursor.hasNext())
+                list.add(cursor.next());
+        } finally {
+            cursor.close();
+        }
+        return list;
+    }
+
+    /**
+     * @return the SQL text, with a {@code ?} for every value
+     */
+    public String getSql() {
+        return getSql(table.getEager());
+    }
+
+    private String getSql(BitSet columns) {
+        final Shape shape = new Shape();
+        if (columns != table.getEager()) {
+            shape.add(Shape.SELECT, columns.cardinality());
+            for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1))
+                shape.add(i);
+        }
+        if (where != null)
+            where.shape(shape);
+        for (int i = 0; i < orderBy.size(); i++)
+            shape.add(Shape.ORDER, orderBy.get(i).getIndex(), descending.get(i) ? 1 : 0);
+        shape.add(Shape.LIMIT, limit);
+        final Map<Shape, String> cache = table.getQueries();
+        String sql = cache.get(shape);
+        if (sql == null)
+            cache.put(shape, sql = render(columns));
+        return sql;
+    }
+
+    public String toString() {
+        return getSql();
+    }
+
+    private String render(BitSet columns) {
+        final BitSet used = (BitSet) columns.clone();
+        if (where != null)
+            where.collect(used);
+        for (Metadata.Field field : orderBy)
+            used.set(field.getIndex());
+        final StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ").append(table.getColumnList(columns, "")).append(" FROM ").append(table.getSource(used, false));
+        if (where != null)
+            where.render(sb.append(" WHERE "));
+        for (int i = 0; i < orderBy.size(); i++)
+            sb.append(i == 0 ? " ORDER BY " : ", ").append(orderBy.get(i).getName()).append(descending.get(i) ? " DESC" : "");
+        return limit == 0 ? sb.toString() : table.getMetadata().getDB().limit(sb.toString(), limit);
+    }
+
+    private static void check(Metadata.Table table, OBJ.FIELD field) {
+        if (field.getTable() != table)
+            throw new IllegalArgumentException(field.getMeta().getName() + " is not a column of " + table.getName());
+    }
+
+    /**
+     * @return opaque text of the key of the row
+     */
+    private static String encode(Metadata.Table table, Metadata.Field[] key, OBJ obj) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(table.getId());
+            for (Metadata.Field field : key) {
+                final Object value = obj.getValue(field);
+                if (value instanceof String) {
+                    out.writeByte('S');
+                    out.writeUTF((String) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte('I');
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte('L');
+                    out.writeLong((Long) value);
+                } else if (value instanceof Boolean) {
+                    out.writeByte('B');
+                    out.writeBoolean((Boolean) value);
+                } else if (value instanceof Timestamp) {
+                    out.writeByte('T');
+                    out.writeLong(((Timestamp) value).getTime());
+                    out.writeInt(((Timestamp) value).getNanos());
+                } else if (value instanceof Time) {
+                    out.writeByte('H');
+                    out.writeLong(((Time) value).getTime());
+                } else if (value instanceof java.util.Date) {
+                    out.writeByte('D');
+                    out.writeLong(((java.util.Date) value).getTime());
+                } else if (value instanceof Identity) {
+                    out.writeByte('U');
+                    out.writeLong(((Identity) value).longValue());
+                } else if (value instanceof Reference) {
+                    out.writeByte('R');
+                    out.writeLong(((Reference) value).getIdentity().longValue());
+                } else if (value instanceof CodeObject) {
+                    out.writeByte('C');
+                    out.writeUTF(((CodeObject) value).getObjectId());
+                } else if (value instanceof Number) {
+                    out.writeByte('N');
+                    out.writeUTF(value.toString());
+                } else
+                    throw new IllegalArgumentException(field.getName() + " of " + (value == null ? "null" : value.getClass().getSimpleName()) + " cannot be a key");
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    private static Object[] decode(Metadata.Table table, Metadata.Field[] key, String token) {
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)));
+            if (in.readInt() != table.getId())
+                throw new IllegalArgumentException("page token of another table");
+            final Object[] values = new Object[key.length];
+            for (int i = 0; i < values.length; i++)
+                switch (in.readByte()) {
+                    case 'S':
+                        values[i] = in.readUTF();
+                        break;
+                    case 'I':
+                        values[i] = in.readInt();
+                        break;
+                    case 'L':
+                        values[i] = in.readLong();
+                        break;
+                    case 'B':
+                        values[i] = in.readBoolean();
+                        break;
+                    case 'T':
+                        final Timestamp timestamp = new Timestamp(in.readLong());
+                        timestamp.setNanos(in.readInt());
+                        values[i] = timestamp;
+                        break;
+                    case 'H':
+                        values[i] = new Time(in.readLong());
+                        break;
+                    case 'D':
+                        values[i] = new java.sql.Date(in.readLong());
+                        break;
+                    case 'U':
+                        values[i] = new Identity(in.readLong());
+                        break;
+                    case 'R':
+                        values[i] = new Reference(in.readLong());
+                        break;
+                    case 'C':
+                        final String id = in.readUTF();
+                        values[i] = PS.getInstance().getCodeObject(id);
+                        if (values[i] == null)
+                            throw new IllegalArgumentException("invalid page token");
+                        break;
+                    case 'N':
+                        values[i] = new BigDecimal(in.readUTF());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("invalid page token");
+                }
+            if (in.read() >= 0)
+                throw new IllegalArgumentException("invalid page token");
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid page token", e);
+        }
+    }
+
+    public static Condition isNull(OBJ.FIELD field) {
+        return new Null(field, false);
+    }
+
+    public static Condition isNotNull(OBJ.FIELD field) {
+        return new Null(field, true);
+    }
+
+    public static Condition not(Condition condition) {
+        return new Not(condition);
+    }
+
+    enum Operator {
+        EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">="), LIKE("LIKE");
+
+        private final String sql;
+
+        Operator(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * Predicate on the columns of a table, see {@link OBJ.FIELD#eq(Object)}
+     */
+    public abstract static class Condition {
+        public Condition and(Condition condition) {
+            return new Junction(true, this, condition);
+        }
+
+        public Condition or(Condition condition) {
+            return new Junction(false, this, condition);
+        }
+
+        abstract void check(Metadata.Table table);
+
+        /**
+         * adds everything which the SQL text depends on
+         */
+        abstract void shape(Shape shape);
+
+        abstract void render(StringBuilder sb);
+
+        abstract void bind(List<Metadata.Field> fields, List<Object> values);
+
+        /**
+         * adds the indexes of the columns the condition refers to
+         */
+        abstract void collect(BitSet columns);
+    }
+
+    static class Compare extends Condition {
+        private final OBJ.FIELD field;
+        private final Operator operator;
+        private final Object value;
+
+        /**
+         * @param value as the object keeps it, see {@link OBJ.FIELD#getValue()}
+         */
+        Compare(OBJ.FIELD field, Operator operator, Object value) {
+            if (value == null)
+                throw new NullPointerException(field.getMeta().getName() + " " + operator.sql + " null");
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        void check(Metadata.Table table) {
+            Query.check(table, field);
+        }
+
+        void shape(Shape shape) {
+            shape.add(Shape.COMPARE, field.getMeta().getIndex(), operator.ordinal());
+        }
+
+        void render(StringBuilder sb) {
+            sb.append(field.getMeta().getName()).append(' ').append(operator.sql).append(" ?");
+        }
+
+        void bind(List<Metadata.Field> fields, List<Object> values) {
+            fields.add(field.getMeta());
+            values.add(value);
+        }
+
+        void collect(BitSet columns) {
+            columns.set(field.getMeta().getIndex());
+        }
+    }
+
+    static class Null extends Condition {
+        private final OBJ.FIELD field;
+        private final boolean negated;
+
+        Null(OBJ.FIELD field, boolean negated) {
+            this.field = field;
+            this.negated = negated;
+        }
+
+        void check(Metadata.Table table) {
+            Query.check(table, field);
+        }
+
+        void shape(Shape shape) {
+            shape.add(Shape.NULL, field.getMeta().getIndex(), negated ? 1 : 0);
+        }
+
+        void render(StringBuilder sb) {
+            sb.append(field.getMeta().getName()).append(negated ? " IS NOT NULL" : " IS NULL");
+        }
+
+        void bind(List<Metadata.Field> fields, List<Object> values) {
+        }
+
+        void collect(BitSet columns) {
+            columns.set(field.getMeta().getIndex());
+        }
+    }
+
+    static class In extends Condition {
+        private final OBJ.FIELD field;
+        private final Object[] values;
+
+        In(OBJ.FIELD field, Object[] values) {
+            if (values.length == 0)
+                throw new IllegalArgumentException(field.getMeta().getName() + " IN () is empty");
+            this.field = field;
+            this.values = values;
+        }
+
+        void check(Metadata.Table table) {
+            Query.check(table, field);
+        }
+
+        void shape(Shape shape) {
+            shape.add(Shape.IN, field.getMeta().getIndex(), values.length);
+        }
+
+        void render(StringBuilder sb) {
+            sb.append(field.getMeta().getName()).append(" IN (");
+            for (int i = 0; i < values.length; i++)
+                sb.append(i == 0 ? "?" : ", ?");
+            sb.append(')');
+        }
+
+        void bind(List<Metadata.Field> fields, List<Object> values) {
+            for (Object value : this.values) {
+                fields.add(field.getMeta());
+                values.add(value);
+            }
+        }
+
+        void collect(BitSet columns) {
+            columns.set(field.getMeta().getIndex());
+        }
+    }
+
+    static class Junction extends Condition {
+        private final boolean and;
+        private final Condition left;
+        private final Condition right;
+
+        Junction(boolean and, Condition left, Condition right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        void check(Metadata.Table table) {
+            left.check(table);
+            right.check(table);
+        }
+
+        void shape(Shape shape) {
+            shape.add(and ? Shape.AND : Shape.OR);
+            left.shape(shape);
+            right.shape(shape);
+        }
+
+        void render(StringBuilder sb) {
+            sb.append('(');
+            left.render(sb);
+            sb.append(and ? " AND " : " OR ");
+            right.render(sb);
+            sb.append(')');
+        }
+
+        void bind(List<Metadata.Field> fields, List<Object> values) {
+            left.bind(fields, values);
+            right.bind(fields, values);
+        }
+
+        void collect(BitSet columns) {
+            left.collect(columns);
+            right.collect(columns);
+        }
+    }
+
+    static class Not extends Condition {
+        private final Condition condition;
+
+        Not(Condition condition) {
+            this.condition = condition;
+        }
+
+        void check(Metadata.Table table) {
+            condition.check(table);
+        }
+
+        void shape(Shape shape) {
+            shape.add(Shape.NOT);
+            condition.shape(shape);
+        }
+
+        void render(StringBuilder sb) {
+            sb.append("NOT (");
+            condition.render(sb);
+            sb.append(')');
+        }
+
+        void bind(List<Metadata.Field> fields, List<Object> values) {
+            condition.bind(fields, values);
+        }
+
+        void collect(BitSet columns) {
+            condition.collect(columns);
+        }
+    }
+
+    /**
+     * Rows whose key is greater than the values: a row value comparison where the dialect has it,
+     * {@code (k1 >= ? AND (k1 > ? OR (k2 >= ? AND (k2 > ? OR k3 > ?))))} otherwise
+     */
+    static class After extends Condition {
+        private final Metadata.Field[] key;
+        private final Object[] values;
+        private final boolean rowValues;
+
+        After(Metadata.Table table, Metadata.Field[] key, Object[] values) {
+            this.key = key;
+            this.values = values;
+            rowValues = table.getMetadata().getDB().hasRowValues();
+        }
+
+        void check(Metadata.Table table) {
+        }
+
+        void shape(Shape shape) {
+            shape.add(Shape.AFTER, key.length);
+        }
+
+        void render(StringBuilder sb) {
+            if (rowValues) {
+                sb.append('(');
+                for (int i = 0; i < key.length; i++)
+                    sb.append(i == 0 ? "" : ", ").append(key[i].getName());
+                sb.append(") > (");
+                for (int i = 0; i < key.length; i++)
+                    sb.append(i == 0 ? "?" : ", ?");
+                sb.append(')');
+            } else {
+                for (int i = 0; i < key.length - 1; i++)
+                    sb.append('(').append(key[i].getName()).append(" >= ? AND (").append(key[i].getName()).append(" > ? OR ");
+                sb.append(key[key.length - 1].getName()).append(" > ?");
+                for (int i = 0; i < key.length - 1; i++)
+                    sb.append("))");
+            }
+        }
+
+        void bind(List<Metadata.Field> fields, List<Object> values) {
+            for (int i = 0; i < key.length; i++) {
+                fields.add(key[i]);
+                values.add(this.values[i]);
+                if (!rowValues && i < key.length - 1) {
+                    fields.add(key[i]);
+                    values.add(this.values[i]);
+                }
+            }
+        }
+
+        void collect(BitSet columns) {
+            for (Metadata.Field field : key)
+                columns.set(field.getIndex());
+        }
+    }
+
+    /**
+     * Rows of {@link #page(int, String)}
+     */
+    public static class Page<T> {
+        private final List<T> rows;
+        private final String next;
+
+        private Page(List<T> rows, String next) {
+            this.rows = rows;
+            this.next = next;
+        }
+
+        public List<T> getRows() {
+            return rows;
+        }
+
+        /**
+         * @return opaque token of the next page, or null if this one is the last
+         */
+        public String getNext() {
+            return next;
+        }
+    }
+
+    /**
+     * Cache key within the {@link Metadata.Table#getQueries() queries} of the table: a prefix notation of the query
+     * as numbers
+     */
+    static class Shape {
+        static final int COMPARE = 1, NULL = 2, IN = 3, AND = 4, OR = 5, NOT = 6, ORDER = 7, LIMIT = 8, SELECT = 9, AFTER = 10;
+
+        private int[] codes = new int[16];
+        private int size;
+
+        void add(int... codes) {
+            if (size + codes.length > this.codes.length)
+                this.codes = Arrays.copyOf(this.codes, Math.max(this.codes.length * 2, size + codes.length));
+            System.arraycopy(codes, 0, this.codes, size, codes.length);
+            size += codes.length;
+        }
+
+        public int hashCode() {
+            int hash = 1;
+            for (int i = 0; i < size; i++)
+                hash = hash * 31 + codes[i];
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Shape))
+                return false;
+            final Shape shape = (Shape) obj;
+            if (shape.size != size)
+                return false;
+            for (int i = 0; i < size; i++)
+                if (shape.codes[i] != codes[i])
+                    return false;
+            return true;
+        }
+    }
+}
@@ -5,6 +5,8 @@
 package org.boudnik.better.sql;
 
 import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.Collection;
 
 /**
  * @author shr
@@ -28,15 +30,18 @@ public class Reference<T extends OBJ> implements Serializable, Cloneable {
         if (object == null)
             throw new NullPointerException();
         this.object = object;
-//todo        this.id = object.isPersistent() ? object.uuid.get() : null;
-//        this.id = object.uuid.get();
+        this.id = object.isPersistent() ? object.getUuid().get() : null;
     }
 
+    /**
+     * Saves a target which is not persistent, also one whose write was rolled back after its identity was taken
+     */
     protected void sync() {
-        if (id == null) {
+        if (object != null && !object.isPersistent()) {
             object.save();
             id = object.getUuid().get();
-        }
+        } else if (id == null)
+            id = object.getUuid().get();
     }
 
     public Identity getIdentity() {
@@ -44,7 +49,63 @@ public class Reference<T extends OBJ> implements Serializable, Cloneable {
         return id;
     }
 
+    /**
+     * @return the identity as it is, without saving a new target
+     */
+    Identity peek() {
+        return id;
+    }
+
+    boolean isResolved() {
+        return object != null;
+    }
+
+    void resolve(T object) {
+        this.object = object;
+    }
+
+    /**
+     * Resolves the references of the REF fields of all the objects at once: their identities are grouped by target
+     * table, objects already in the current {@link Session} are reused, and the others are loaded with chunked
+     * {@code IN (...)} queries.
+     *
+     * @param fields REF fields of any object of the class, or none for all of them
+     */
+    public static void resolve(Collection<? extends OBJ> objects, OBJ.REF<?>... fields) throws SQLException {
+        if (objects.isEmpty())
+            return;
+        final Metadata.Table table = objects.iterator().next().getTable();
+        if (fields.length > 0)
+            for (OBJ.REF<?> field : fields) {
+                if (field.getTable() != table)
+                    throw new IllegalArgumentException(field.getMeta().getName() + " is not a column of " + table.getName());
+                Group.resolve(objects, field.getMeta());
+            }
+        else
+            for (Metadata.Field field : table.getFields())
+                if (OBJ.REF.class.isAssignableFrom(field.getType()))
+                    Group.resolve(objects, field);
+    }
+
+    /**
+     * @return the object, resolving the identity on first access through the current {@link Session}, or the only
+     * database which maps its class
+     */
     public T get() {
+        return get(null);
+    }
+
+    /**
+     * @param metadata where the identity is resolved, see {@link Session#resolve(Metadata, Identity)}
+     */
+    T get(Metadata metadata) {
+        if (object == null && id != null)
+            try {
+                //noinspection unchecked
+                object = (T) Session.resolve(metadata, id);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
         return object;
     }
 
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Rows of one {@link Metadata.Table} stored column by column: a {@code long} column with a null bitmap for every
+ * {@link Primitive} field, an {@code Object} column for the rest. There are no objects nor FIELDs per row;
+ * a {@link View} shows any row through a single reusable object.
+ * <p>
+ * Primitive columns of a {@code direct} batch live off the heap. Rows are filled by {@link Cursor#fill(RowBatch, int)}
+ * or {@link #add(OBJ)}, and written by {@link Batch#add(RowBatch)}.
+ *
+ * @author shr
+ * @since Oct 17, 2026 8:47:51 PM
+ */
+public class RowBatch<T extends OBJ> implements Iterable<T> {
+    private final Metadata.Table table;
+    private final Metadata.Field[] fields;
+    private final boolean direct;
+    private final Column[] columns;
+    private long[] persistent;
+    private int capacity;
+    private int size;
+
+    public RowBatch(Metadata.Table table) {
+        this(table, 1024, false);
+    }
+
+    /**
+     * @param capacity initial number of rows; the batch grows as needed
+     * @param direct   whether primitive columns are kept off the heap
+     */
+    public RowBatch(Metadata.Table table, int capacity, boolean direct) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity should be > 0");
+        if (table.isAbstract())
+            throw new IllegalArgumentException(table.getName() + " is abstract");
+        this.table = table;
+        this.direct = direct;
+        this.capacity = capacity;
+        fields = table.getFields();
+        columns = new Column[fields.length];
+        for (Metadata.Field field : fields)
+            columns[field.getIndex()] = field.getSlot() < 0 ? new References(capacity) : direct ? new DirectLongs(capacity) : new Longs(capacity);
+        persistent = new long[words(capacity)];
+    }
+
+    public Metadata.Table getTable() {
+        return table;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        for (Column column : columns)
+            column.clear(size);
+        Arrays.fill(persistent, 0);
+        size = 0;
+    }
+
+    /**
+     * Appends a copy of the values of the object
+     *
+     * @return the row
+     */
+    public int add(T obj) {
+        final int row = next();
+        set(row, obj);
+        return row;
+    }
+
+    /**
+     * Overwrites the row with a copy of the values of the object
+     */
+    public void set(int row, T obj) {
+        check(row);
+        if (obj.getTable() != table)
+            throw new IllegalArgumentException(obj.getClass().getSimpleName() + " is not " + table.getName());
+        for (Metadata.Field field : fields)
+            if (field.getSlot() < 0)
+                setValue(row, field, obj.getValue(field));
+            else if (obj.isNull(field))
+                setNull(row, field);
+            else
+                setPrimitive(row, field, obj.getPrimitive(field));
+        setPersistent(row, obj.isPersistent());
+    }
+
+    /**
+     * @return a new object with the values of the row; see {@link #view()} to avoid an object per row
+     */
+    public T get(int row) {
+        //noinspection unchecked
+        return new View((T) table.create()).at(row);
+    }
+
+    /**
+     * @return a view over the rows through one object of its own
+     */
+    public View view() {
+        //noinspection unchecked
+        return new View((T) table.create());
+    }
+
+    /**
+     * @return iterator returning the same object, positioned at the next row, on each call
+     */
+    public Iterator<T> iterator() {
+        final View view = view();
+        return new Iterator<T>() {
+            private int row;
+
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            public T next() {
+                if (row >= size)
+                    throw new NoSuchElementException();
+                return view.at(row++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Keeps the rows the predicate accepts, in their order; the predicate sees every row through the same object
+     *
+     * @return number of rows removed
+     */
+    public int filter(Predicate<? super T> predicate) {
+        final View view = view();
+        int kept = 0;
+        for (int row = 0; row < size; row++)
+            if (predicate.test(view.at(row))) {
+                if (kept != row)
+                    move(row, kept);
+                kept++;
+            }
+        final int removed = size - kept;
+        for (int row = kept; row < size; row++)
+            for (Column column : columns)
+                column.setNull(row);
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * Sorts the rows by the columns of the keys, nulls first, as {@link OBJ.ComparableFIELD#compareTo} does;
+     * the keys may be FIELDs of any object of the table, e.g. of {@link #view()}. Without keys the rows are sorted by
+     * {@link OBJ#getKey()}.
+     */
+    public void sort(OBJ.ComparableFIELD... keys) {
+        if (keys.length == 0)
+            keys = view().obj.getKey();
+        final int[] columns = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            columns[i] = keys[i].index;
+        final int[] permutation = new int[size];
+        for (int row = 0; row < size; row++)
+            permutation[row] = row;
+        sort(permutation, new int[size], 0, size, columns);
+        permute(permutation);
+    }
+
+    /**
+     * A single object showing one row at a time. Changes made to it stay in the object; {@link #set(int, OBJ)}
+     * writes them back.
+     */
+    public class View {
+        private final T obj;
+        private final long[] all;
+        private final long[] eager;
+
+        private View(T obj) {
+            this.obj = obj;
+            all = new long[words(fields.length)];
+            eager = new long[all.length];
+            final java.util.BitSet columns = table.getEager();
+            for (int i = 0; i < fields.length; i++) {
+                all[i >>> 6] |= 1L << i;
+                if (columns.get(i))
+                    eager[i >>> 6] |= 1L << i;
+            }
+        }
+
+        /**
+         * @return the object of the view, now showing the row; deferred columns of persistent rows are fetched on access
+         */
+        public T at(int row) {
+            check(row);
+            for (Metadata.Field field : fields)
+                if (field.getSlot() < 0)
+                    obj.setValue(field, getValue(row, field));
+                else if (isNull(row, field))
+                    obj.setValue(field, null);
+                else
+                    obj.setPrimitive(field, getPrimitive(row, field));
+            final boolean persistent = isPersistent(row);
+            obj.reset(persistent ? eager : all, persistent);
+            return obj;
+        }
+    }
+
+    boolean isPersistent(int row) {
+        return (persistent[row >>> 6] & (1L << row)) != 0;
+    }
+
+    void setPersistent(int row, boolean value) {
+        if (value)
+            persistent[row >>> 6] |= 1L << row;
+        else
+            persistent[row >>> 6] &= ~(1L << row);
+    }
+
+    boolean isNull(int row, Metadata.Field field) {
+        return columns[field.getIndex()].isNull(row);
+    }
+
+    long getPrimitive(int row, Metadata.Field field) {
+        return ((Primitives) columns[field.getIndex()]).get(row);
+    }
+
+    void setPrimitive(int row, Metadata.Field field, long value) {
+        ((Primitives) columns[field.getIndex()]).set(row, value);
+    }
+
+    void setNull(int row, Metadata.Field field) {
+        columns[field.getIndex()].setNull(row);
+    }
+
+    /**
+     * @return the value of the column, boxed if it is a primitive one
+     */
+    Object getValue(int row, Metadata.Field field) {
+        final Column column = columns[field.getIndex()];
+        if (column instanceof References)
+            return ((References) column).values[row];
+        return column.isNull(row) ? null : field.getPrimitive().box(((Primitives) column).get(row));
+    }
+
+    void setValue(int row, Metadata.Field field, Object value) {
+        final Column column = columns[field.getIndex()];
+        if (column instanceof References)
+            ((References) column).values[row] = value;
+        else if (value == null)
+            column.setNull(row);
+        else
+            ((Primitives) column).set(row, field.getPrimitive().unbox(value));
+    }
+
+    /**
+     * Appends an empty row, growing the columns if needed
+     *
+     * @return the row
+     */
+    int next() {
+        if (size == capacity) {
+            capacity = capacity * 2;
+            for (Column column : columns)
+                column.grow(capacity);
+            persistent = Arrays.copyOf(persistent, words(capacity));
+        }
+        return size++;
+    }
+
+    private void check(int row) {
+        if (row < 0 || row >= size)
+            throw new IndexOutOfBoundsException(row + " of " + size);
+    }
+
+    private int compare(int a, int b, int[] keys) {
+        for (int index : keys) {
+            final Column column = columns[index];
+            final boolean n1 = column.isNull(a);
+            final boolean n2 = column.isNull(b);
+            final int result;
+            if (n1 || n2)
+                result = n1 ? n2 ? 0 : -1 : 1;
+            else if (column instanceof Primitives)
+                result = Long.compare(((Primitives) column).get(a), ((Primitives) column).get(b));
+            else
+                //noinspection unchecked
+                result = ((Comparable) ((References) column).values[a]).compareTo(((References) column).values[b]);
+            if (result != 0)
+                return result;
+        }
+        return 0;
+    }
+
+    /**
+     * stable merge sort of row numbers, without boxing them
+     */
+    private void sort(int[] rows, int[] buffer, int from, int to, int[] keys) {
+        if (to - from < 2)
+            return;
+        final int middle = (from + to) >>> 1;
+        sort(rows, buffer, from, middle, keys);
+        sort(rows, buffer, middle, to, keys);
+        if (compare(rows[middle - 1], rows[middle], keys) <= 0)
+            return;
+        System.arraycopy(rows, from, buffer, from, to - from);
+        for (int i = from, left = from, right = middle; i < to; i++)
+            rows[i] = right >= to || left < middle && compare(buffer[left], buffer[right], keys) <= 0 ? buffer[left++] : buffer[right++];
+    }
+
+    private void move(int from, int to) {
+        for (Column column : columns)
+            column.move(from, to);
+        setPersistent(to, isPersistent(from));
+    }
+
+    /**
+     * rearranges the rows so that row {@code i} becomes the row {@code permutation[i]} was
+     */
+    private void permute(int[] permutation) {
+        for (Column column : columns)
+            column.permute(permutation, size);
+        final long[] persistent = new long[this.persistent.length];
+        for (int row = 0; row < size; row++)
+            if (isPersistent(permutation[row]))
+                persistent[row >>> 6] |= 1L << row;
+        this.persistent = persistent;
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private abstract static class Column {
+        abstract boolean isNull(int row);
+
+        abstract void setNull(int row);
+
+        abstract void move(int from, int to);
+
+        abstract void permute(int[] permutation, int size);
+
+        abstract void grow(int capacity);
+
+        abstract void clear(int size);
+    }
+
+    private static class References extends Column {
+        private Object[] values;
+
+        private References(int capacity) {
+            values = new Object[capacity];
+        }
+
+        boolean isNull(int row) {
+            return values[row] == null;
+        }
+
+        void setNull(int row) {
+            values[row] = null;
+        }
+
+        void move(int from, int to) {
+            values[to] = values[from];
+        }
+
+        void permute(int[] permutation, int size) {
+            final Object[] values = new Object[this.values.length];
+            for (int row = 0; row < size; row++)
+                values[row] = this.values[permutation[row]];
+            this.values = values;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void clear(int size) {
+            Arrays.fill(values, 0, size, null);
+        }
+    }
+
+    /**
+     * values of a {@link Primitive} column; a row is null unless its bit is set
+     */
+    private abstract static class Primitives extends Column {
+        private long[] present;
+
+        private Primitives(int capacity) {
+            present = new long[words(capacity)];
+        }
+
+        abstract long get(int row);
+
+        abstract void put(int row, long value);
+
+        void set(int row, long value) {
+            put(row, value);
+            present[row >>> 6] |= 1L << row;
+        }
+
+        boolean isNull(int row) {
+            return (present[row >>> 6] & (1L << row)) == 0;
+        }
+
+        void setNull(int row) {
+            present[row >>> 6] &= ~(1L << row);
+        }
+
+        void move(int from, int to) {
+            if (isNull(from))
+                setNull(to);
+            else
+                set(to, get(from));
+        }
+
+        void permute(int[] permutation, int size) {
+            final long[] values = new long[size];
+            final long[] present = new long[this.present.length];
+            for (int row = 0; row < size; row++) {
+                values[row] = get(permutation[row]);
+                if (!isNull(permutation[row]))
+                    present[row >>> 6] |= 1L << row;
+            }
+            for (int row = 0; row < size; row++)
+                put(row, values[row]);
+            this.present = present;
+        }
+
+        void grow(int capacity) {
+            present = Arrays.copyOf(present, words(capacity));
+        }
+
+        void clear(int size) {
+            Arrays.fill(present, 0);
+        }
+    }
+
+    private static class Longs extends Primitives {
+        private long[] values;
+
+        private Longs(int capacity) {
+            super(capacity);
+            values = new long[capacity];
+        }
+
+        long get(int row) {
+            return values[row];
+        }
+
+        void put(int row, long value) {
+            values[row] = value;
+        }
+
+        void grow(int capacity) {
+            super.grow(capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static class DirectLongs extends Primitives {
+        private LongBuffer values;
+
+        private DirectLongs(int capacity) {
+            super(capacity);
+            values = allocate(capacity);
+        }
+
+        long get(int row) {
+            return values.get(row);
+        }
+
+        void put(int row, long value) {
+            values.put(row, value);
+        }
+
+        void grow(int capacity) {
+            super.grow(capacity);
+            final LongBuffer values = allocate(capacity);
+            this.values.rewind();
+            values.put(this.values);
+            this.values = values;
+        }
+
+        private static LongBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.sql.SQLException;
+
+/**
+ * Unit of work holding an identity map: within a session every row is hydrated at most once, and every load or
+ * {@link Reference} resolution of the same {@link Identity} returns the same object.
+ * <p>
+ * {@link #open(Metadata)} makes the session current for the calling thread; {@link Cursor}, {@link Reference#get()}
+ * and {@link Batch} consult it. {@link #close()} restores the previous one.
+ *
+ * @author shr
+ * @since Oct 17, 2026 6:03:19 PM
+ */
+public class Session implements AutoCloseable {
+    private static final ThreadLocal<Session> current = new ThreadLocal<Session>();
+
+    private final Metadata metadata;
+    private final Session outer;
+    private final LongMap<OBJ> objects = new LongMap<OBJ>();
+
+    private Session(Metadata metadata, Session outer) {
+        this.metadata = metadata;
+        this.outer = outer;
+    }
+
+    public static Session open(Metadata metadata) {
+        final Session session = new Session(metadata, current.get());
+        current.set(session);
+        return session;
+    }
+
+    /**
+     * @return the session of the calling thread, or null
+     */
+    public static Session current() {
+        return current.get();
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return the object of the session, loading it if it is not there yet; null if there is no such row
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends OBJ> T load(Identity<T> id) throws SQLException {
+        final OBJ known = objects.get(id.longValue());
+        return (T) (known != null ? known : table(metadata, id).load(id));
+    }
+
+    /**
+     * @return the object already in the session, or null
+     */
+    public OBJ get(Identity id) {
+        return objects.get(id.longValue());
+    }
+
+    OBJ get(long id) {
+        return objects.get(id);
+    }
+
+    void put(OBJ obj) {
+        objects.put(obj.getUuid().get().longValue(), obj);
+    }
+
+    /**
+     * detaches the object, so that the next load of its row hydrates a new one
+     */
+    public void evict(OBJ obj) {
+        if (obj.getUuid().get() != null)
+            objects.remove(obj.getUuid().get().longValue());
+    }
+
+    public int size() {
+        return objects.size();
+    }
+
+    public void clear() {
+        objects.clear();
+    }
+
+    public void close() {
+        if (current.get() != this)
+            throw new IllegalStateException("session is not current");
+        objects.clear();
+        if (outer == null)
+            current.remove();
+        else
+            current.set(outer);
+    }
+
+    /**
+     * Resolves an identity through the current session if it is of the metadata, or loads it otherwise
+     *
+     * @param metadata where the identity is resolved, or null for the session or the database which maps its class,
+     *                 see {@link Metadata#of(Identity)}
+     */
+    static OBJ resolve(Metadata metadata, Identity id) throws SQLException {
+        final Session session = current.get();
+        if (session != null && (metadata == null || session.metadata == metadata))
+            return session.load(id);
+        return table(metadata != null ? metadata : Metadata.of(id), id).load(id);
+    }
+
+    private static Metadata.Table table(Metadata metadata, Identity id) {
+        final Metadata.Table table = metadata.get(id.getClassId());
+        if (table == null)
+            throw new IllegalArgumentException("no table for " + id);
+        return table;
+    }
+}
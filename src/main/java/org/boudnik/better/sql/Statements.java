@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of {@link PreparedStatement}s of one physical connection, keyed by {@link Metadata.Table},
+ * {@link Operation} and column set.
+ * <p>
+ * {@link #prepare} leases a statement; the lease must be closed when the statement is no longer used.
+ * A leased statement is never closed by eviction, it is closed when its last lease is released instead.
+ *
+ * @author shr
+ * @since Oct 17, 2026 1:05:52 PM
+ */
+public class Statements {
+    public enum Operation {
+        INSERT, SELECT, UPDATE, DELETE
+    }
+
+    private final Connection connection;
+    private final int capacity;
+    private final LinkedHashMap<Key, Lease> cache = new LinkedHashMap<Key, Lease>(16, 0.75f, true);
+    private final AtomicLong totalHits;
+    private final AtomicLong totalMisses;
+    private long hits;
+    private long misses;
+
+    Statements(Connection connection, int capacity, AtomicLong totalHits, AtomicLong totalMisses) {
+        this.connection = connection;
+        this.capacity = capacity;
+        this.totalHits = totalHits;
+        this.totalMisses = totalMisses;
+    }
+
+    /**
+     * @return statement cache of a connection handed out by {@link DB#getConnection()},
+     * or a cache of zero capacity for any other connection
+     */
+    public static Statements of(Connection connection) {
+        final Statements statements = Pool.getStatements(connection);
+        return statements != null ? statements : new Statements(connection, 0, new AtomicLong(), new AtomicLong());
+    }
+
+    /**
+     * @param columns columns to insert, select or set; the rows of SELECT, UPDATE and DELETE are identified by uuid
+     */
+    public Lease prepare(Metadata.Table table, Operation operation, BitSet columns) throws SQLException {
+        final Key key = new Key(table, operation, columns);
+        Lease lease = cache.get(key);
+        if (lease != null) {
+            hits++;
+            totalHits.incrementAndGet();
+        } else {
+            misses++;
+            totalMisses.incrementAndGet();
+            lease = new Lease(connection.prepareStatement(table.getSql(operation, columns)));
+            if (capacity > 0) {
+                cache.put(new Key(table, operation, (BitSet) columns.clone()), lease);
+                evict();
+            } else {
+                lease.evicted = true;
+            }
+        }
+        lease.leases++;
+        return lease;
+    }
+
+    private void evict() throws SQLException {
+        for (Iterator<Lease> iterator = cache.values().iterator(); cache.size() > capacity && iterator.hasNext(); ) {
+            final Lease lease = iterator.next();
+            iterator.remove();
+            lease.evicted = true;
+            if (lease.leases == 0)
+                lease.ps.close();
+        }
+    }
+
+    void close() throws SQLException {
+        for (Lease lease : cache.values()) {
+            lease.evicted = true;
+            lease.ps.close();
+        }
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public static class Lease implements AutoCloseable {
+        private final PreparedStatement ps;
+        private int leases;
+        private boolean evicted;
+
+        private Lease(PreparedStatement ps) {
+            this.ps = ps;
+        }
+
+        public PreparedStatement getStatement() {
+            return ps;
+        }
+
+        public void close() throws SQLException {
+            if (--leases == 0) {
+                if (evicted)
+                    ps.close();
+                else
+                    ps.clearParameters();
+            }
+        }
+    }
+
+    private static class Key {
+        private final Metadata.Table table;
+        private final Operation operation;
+        private final BitSet columns;
+        private final int hash;
+
+        private Key(Metadata.Table table, Operation operation, BitSet columns) {
+            this.table = table;
+            this.operation = operation;
+            this.columns = columns;
+            hash = (table.hashCode() * 31 + operation.ordinal()) * 31 + columns.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            final Key key = (Key) obj;
+            return table == key.table && operation == key.operation && columns.equals(key.columns);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects new and dirty objects and writes them all at once.
+ * <p>
+ * While a unit is current for the thread, see {@link #open(DB)}, {@link OBJ#save()} only registers the object and
+ * gives it an {@link Identity}, so references to it are known before anything is written. {@link #commit()} adds
+ * the new and dirty targets of REF columns, orders the tables so that targets come before the objects referring to
+ * them, and sends every table as one JDBC batch within one transaction. Should the transaction fail, the objects
+ * stay new or dirty as they were and the unit can be committed again.
+ *
+ * @author shr
+ * @since Oct 17, 2026 11:52:06 PM
+ */
+public class UnitOfWork implements AutoCloseable {
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<UnitOfWork>();
+
+    private final DB db;
+    private final UnitOfWork outer;
+    private final Set<OBJ> objects = Collections.newSetFromMap(new IdentityHashMap<OBJ, Boolean>());
+    private final List<OBJ> order = new ArrayList<OBJ>();
+    private Batch flushing;
+    private final Set<OBJ> writing = Collections.newSetFromMap(new IdentityHashMap<OBJ, Boolean>());
+
+    private UnitOfWork(DB db, UnitOfWork outer) {
+        this.db = db;
+        this.outer = outer;
+    }
+
+    public static UnitOfWork open(DB db) {
+        final UnitOfWork work = new UnitOfWork(db, current.get());
+        current.set(work);
+        return work;
+    }
+
+    static UnitOfWork current() {
+        return current.get();
+    }
+
+    /**
+     * Registers the object, once, and assigns its identity if it has none
+     */
+    public void add(OBJ obj) throws SQLException {
+        if (flushing != null) {
+            // an object of the commit saved as the target of a reference waits for the turn of its table
+            if (!writing.contains(obj))
+                flushing.add(obj);
+            return;
+        }
+        if (obj.getUuid().get() == null)
+            obj.getUuid().set(new Identity(obj.getTable().getId()));
+        if (objects.add(obj))
+            order.add(obj);
+    }
+
+    /**
+     * Writes the registered objects and the new or dirty objects they refer to; the unit is empty afterwards
+     */
+    public void commit() throws SQLException {
+        final Map<Metadata.Table, List<OBJ>> byTable = new LinkedHashMap<Metadata.Table, List<OBJ>>();
+        final Set<OBJ> seen = Collections.newSetFromMap(new IdentityHashMap<OBJ, Boolean>());
+        final Deque<OBJ> queue = new ArrayDeque<OBJ>(order);
+        int count = 0;
+        while (!queue.isEmpty()) {
+            final OBJ obj = queue.poll();
+            if (!seen.add(obj) || obj.isPersistent() && !obj.isDirty())
+                continue;
+            if (obj.getUuid().get() == null)
+                obj.getUuid().set(new Identity(obj.getTable().getId()));
+            List<OBJ> list = byTable.get(obj.getTable());
+            if (list == null)
+                byTable.put(obj.getTable(), list = new ArrayList<OBJ>());
+            list.add(obj);
+            count++;
+            for (Metadata.Field field : obj.getTable().getFields())
+                if (field.getSlot() < 0) {
+                    final Object value = obj.getValue(field);
+                    if (value instanceof Reference && ((Reference) value).isResolved())
+                        queue.add(((Reference) value).get());
+                }
+        }
+        final List<OBJ> sorted = new ArrayList<OBJ>(count);
+        for (Metadata.Table table : sort(byTable.keySet()))
+            sorted.addAll(byTable.get(table));
+        final boolean[] persistent = new boolean[sorted.size()];
+        final long[][] dirty = new long[sorted.size()][];
+        for (int i = 0; i < sorted.size(); i++) {
+            persistent[i] = sorted.get(i).isPersistent();
+            dirty[i] = sorted.get(i).getDirty().clone();
+        }
+        final Batch batch = Batch.transaction(db, Math.max(db.getBatchSize(), count));
+        flushing = batch;
+        writing.addAll(sorted);
+        boolean committed = false;
+        try {
+            boolean added = false;
+            try {
+                for (OBJ obj : sorted)
+                    batch.add(obj);
+                added = true;
+            } finally {
+                if (!added)
+                    batch.rollback();
+            }
+            batch.commit();
+            committed = true;
+        } finally {
+            flushing = null;
+            writing.clear();
+            if (!committed)
+                for (int i = 0; i < sorted.size(); i++)
+                    sorted.get(i).restore(persistent[i], dirty[i]);
+        }
+        objects.clear();
+        order.clear();
+    }
+
+    /**
+     * @return the tables ordered so that the targets of the REF columns of a table, the tables of subclasses of the
+     * declared target included, precede it; tables within a cycle keep the order they were met
+     */
+    private Iterable<Metadata.Table> sort(Set<Metadata.Table> tables) {
+        final Map<Metadata.Table, Set<Metadata.Table>> targets = new LinkedHashMap<Metadata.Table, Set<Metadata.Table>>();
+        for (Metadata.Table table : tables) {
+            final Set<Metadata.Table> set = new LinkedHashSet<Metadata.Table>();
+            for (Metadata.Field field : table.getFields())
+                if (OBJ.REF.class.isAssignableFrom(field.getType()) && field.getTarget() != null)
+                    for (Metadata.Table target : tables)
+                        //noinspection unchecked
+                        if (target != table && field.getTarget().isAssignableFrom(target.getType()))
+                            set.add(target);
+            targets.put(table, set);
+        }
+        final Set<Metadata.Table> sorted = new LinkedHashSet<Metadata.Table>();
+        while (sorted.size() < tables.size()) {
+            Metadata.Table next = null;
+            for (Map.Entry<Metadata.Table, Set<Metadata.Table>> entry : targets.entrySet())
+                if (!sorted.contains(entry.getKey()) && sorted.containsAll(entry.getValue())) {
+                    next = entry.getKey();
+                    break;
+                }
+            if (next == null)
+                for (Metadata.Table table : tables)
+                    if (!sorted.contains(table)) {
+                        next = table;
+                        break;
+                    }
+            sorted.add(next);
+        }
+        return sorted;
+    }
+
+    /**
+     * Forgets what was not committed and restores the previous unit
+     */
+    public void close() {
+        if (current.get() != this)
+            throw new IllegalStateException("unit of work is not current");
+        objects.clear();
+        order.clear();
+        if (outer == null)
+            current.remove();
+        else
+            current.set(outer);
+    }
+}
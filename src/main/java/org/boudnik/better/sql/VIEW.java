@@ -4,7 +4,12 @@
 
 package org.boudnik.better.sql;
 
+import java.sql.Date;
+
 /**
+ * Holder of one column of a projection: a class with VIEW fields named as columns of a table (or {@link NAME}d)
+ * is filled by {@link Query#select(Class)} with just those columns.
+ *
  * @author Alexander Boudnik (shr)
  * @since Apr 6, 2008 3:47:06 PM
  */
@@ -32,6 +37,18 @@ public interface VIEW<T> {
         public T get() {
             return value;
         }
+
+        /**
+         * @param value as an {@link OBJ} keeps it, see {@link OBJ.FIELD#getValue()}
+         */
+        @SuppressWarnings("unchecked")
+        void setValue(Object value) {
+            this.value = (T) value;
+        }
+
+        public String toString() {
+            return String.valueOf(value);
+        }
     }
 
     abstract static class CFIELD<I extends Comparable<I>> extends FIELD<I> implements Comparable<CFIELD<I>> {
@@ -61,4 +78,66 @@ public interface VIEW<T> {
             return OBJ.STR.class;
         }
     }
+
+    public static class CHAR extends CFIELD<String> {
+        public Class<? extends OBJ.FIELD> getType() {
+            return OBJ.CHAR.class;
+        }
+    }
+
+    public static class LONGSTR extends FIELD<String> {
+        public Class<? extends OBJ.FIELD> getType() {
+            return OBJ.LONGSTR.class;
+        }
+    }
+
+    public static class INT extends CFIELD<Integer> {
+        public Class<? extends OBJ.FIELD> getType() {
+            return OBJ.INT.class;
+        }
+    }
+
+    public static class LONG extends CFIELD<Long> {
+        public Class<? extends OBJ.FIELD> getType() {
+            return OBJ.LONG.class;
+        }
+    }
+
+    public static class BOOL extends CFIELD<Boolean> {
+        public Class<? extends OBJ.FIELD> getType() {
+            return OBJ.BOOL.class;
+        }
+    }
+
+    public static class DATE extends FIELD<Date> {
+        public Class<? extends OBJ.FIELD> getType() {
+            return OBJ.DATE.class;
+        }
+    }
+
+    public static class UUID extends FIELD<Identity> {
+        public Class<? extends OBJ.FIELD> getType() {
+            return OBJ.UUID.class;
+        }
+    }
+
+    /**
+     * the target is resolved on {@link Reference#get()}
+     */
+    public static class REF<T extends OBJ> extends FIELD<Reference<T>> {
+        public Class<? extends OBJ.FIELD> getType() {
+            return OBJ.REF.class;
+        }
+    }
+
+    public static class CODEREF<T extends CodeObject> extends FIELD<T> {
+        @SuppressWarnings("unchecked")
+        void setValue(Object value) {
+            set(value instanceof String ? (T) PS.getInstance().getCodeObject((String) value) : (T) value);
+        }
+
+        public Class<? extends OBJ.FIELD> getType() {
+            return OBJ.CODEREF.class;
+        }
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import org.boudnik.qa.core.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.PasswordAuthentication;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link Batch} on {@link DB.H2Embedded}: dirty columns, wide masks, failures and cycles
+ *
+ * @author shr
+ * @since Oct 18, 2026 4:25:33 PM
+ */
+public class BatchTest {
+    private static int databases;
+
+    private DB db;
+    private Metadata metadata;
+    private Session session;
+
+    @Before
+    public void open() throws Exception {
+        db = DB.open(DB.H2Embedded.class, "localhost", "batch" + ++databases, new PasswordAuthentication("sa", new char[0]));
+        metadata = new Metadata(db, OBJ.class, Foo.class, Person.class, Team.class, Wide.class);
+        session = Session.open(metadata);
+        execute(metadata.get(Foo.class).render(),
+                metadata.get(Person.class).render(),
+                metadata.get(Team.class).render(),
+                metadata.get(Wide.class).render(),
+                "ALTER TABLE Foo ADD CHECK (age < 100)");
+    }
+
+    @After
+    public void close() {
+        session.close();
+    }
+
+    private void execute(String... sql) throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            for (String s : sql)
+                statement.execute(s);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private Object[] row(String sql) throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            final ResultSet rs = statement.executeQuery(sql);
+            assertTrue(sql, rs.next());
+            final Object[] row = new Object[rs.getMetaData().getColumnCount()];
+            for (int i = 0; i < row.length; i++)
+                row[i] = rs.getObject(i + 1);
+            assertFalse(sql, rs.next());
+            statement.close();
+            return row;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static Foo foo(String name, int age) {
+        final Foo foo = new Foo();
+        foo.name.set(name);
+        foo.age.setInt(age);
+        foo.sex.set(Sex.MALE);
+        return foo;
+    }
+
+    /**
+     * a column changed behind the object survives the UPDATE of another one
+     */
+    @Test
+    public void dirtyColumns() throws Exception {
+        final Foo foo = foo("foo", 1);
+        foo.save();
+        final long id = foo.getUuid().get().longValue();
+        execute("UPDATE Foo SET income = 42 WHERE uuid = " + id);
+        foo.age.setInt(2);
+        foo.save();
+        assertFalse(foo.isDirty());
+        assertArrayEquals(new Object[]{2, 42}, row("SELECT age, income FROM Foo WHERE uuid = " + id));
+    }
+
+    /**
+     * columns past the first 64 are inserted, updated and loaded alone
+     */
+    @Test
+    public void wide() throws Exception {
+        final Wide wide = new Wide();
+        wide.c0.setInt(1);
+        wide.c63.setInt(63);
+        wide.c64.setInt(64);
+        wide.c69.setInt(69);
+        wide.save();
+        assertTrue(wide.isPersistent());
+        assertFalse(wide.isDirty());
+        final long id = wide.getUuid().get().longValue();
+        assertArrayEquals(new Object[]{1, 63, 64, null, 69}, row("SELECT c0, c63, c64, c65, c69 FROM Wide WHERE uuid = " + id));
+
+        execute("UPDATE Wide SET c0 = 7, c64 = 7 WHERE uuid = " + id);
+        wide.c65.setInt(65);
+        wide.save();
+        assertFalse(wide.isDirty());
+        assertArrayEquals(new Object[]{7, 63, 7, 65, 69}, row("SELECT c0, c63, c64, c65, c69 FROM Wide WHERE uuid = " + id));
+
+        session.clear();
+        final Wide loaded = (Wide) session.load(wide.getUuid().get());
+        assertNotSame(wide, loaded);
+        assertEquals(7, loaded.c64.getInt());
+        assertEquals(65, loaded.c65.getInt());
+        assertEquals(69, loaded.c69.getInt());
+        assertTrue(loaded.c68.isNull());
+    }
+
+    /**
+     * an INSERT which fails leaves the object new, so that the next save inserts it again
+     */
+    @Test
+    public void failedInsert() throws Exception {
+        final Foo foo = foo("foo", 200);
+        final Batch batch = Batch.open(db, 100);
+        try {
+            batch.add(foo);
+            batch.flush();
+            fail("CHECK constraint did not fail");
+        } catch (SQLException e) {
+            // expected
+        } finally {
+            batch.close();
+        }
+        assertFalse(foo.isPersistent());
+        assertTrue(foo.isDirty());
+        assertArrayEquals(new Object[]{0L}, row("SELECT count(*) FROM Foo"));
+
+        foo.age.setInt(20);
+        foo.save();
+        assertTrue(foo.isPersistent());
+        assertArrayEquals(new Object[]{"foo", 20}, row("SELECT nickName, age FROM Foo WHERE uuid = " + foo.getUuid().get().longValue()));
+    }
+
+    /**
+     * new objects which refer to each other are written once each
+     */
+    @Test
+    public void cycle() throws Exception {
+        final Person person = new Person();
+        final Team team = new Team();
+        person.name.set("captain");
+        person.team.set(team);
+        team.name.set("team");
+        team.captain.set(person);
+        final Batch batch = Batch.open(db);
+        try {
+            batch.add(person);
+            batch.add(team);
+        } finally {
+            batch.close();
+        }
+        assertTrue(person.isPersistent());
+        assertTrue(team.isPersistent());
+        assertArrayEquals(new Object[]{1L, 1L}, row("SELECT (SELECT count(*) FROM Person), (SELECT count(*) FROM Team)"));
+        assertArrayEquals(new Object[]{team.getUuid().get().longValue()}, row("SELECT team FROM Person"));
+        assertArrayEquals(new Object[]{person.getUuid().get().longValue()}, row("SELECT captain FROM Team"));
+    }
+}
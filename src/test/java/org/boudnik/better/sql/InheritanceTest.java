@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import org.boudnik.qa.core.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.PasswordAuthentication;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips of the SINGLE_TABLE hierarchy of {@link Animal} and the JOINED one of {@link Node} on {@link DB.H2Embedded}
+ *
+ * @author shr
+ * @since Oct 18, 2026 11:14:26 AM
+ */
+public class InheritanceTest {
+    private static int databases;
+
+    private DB db;
+    private Metadata metadata;
+    private Session session;
+
+    @Before
+    public void open() throws Exception {
+        db = DB.open(DB.H2Embedded.class, "localhost", "inheritance" + ++databases, new PasswordAuthentication("sa", new char[0]));
+        metadata = new Metadata(db, OBJ.class, Animal.class, Cat.class, Dog.class, Node.class, Box.class, Crate.class);
+        session = Session.open(metadata);
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            for (Metadata.Table table : metadata)
+                if (table != null && table.ownsStorage() && table.getType() != OBJ.class)
+                    statement.execute(table.render());
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @After
+    public void close() {
+        session.close();
+    }
+
+    private List<Metadata.Index> missing() throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final List<Metadata.Index> missing = new ArrayList<Metadata.Index>();
+            for (Metadata.Index index : metadata.getMissingIndexes(connection))
+                if (!index.isPrimary())
+                    missing.add(index);
+            return missing;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private Object[] row(String sql) throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            final ResultSet rs = statement.executeQuery(sql);
+            assertTrue(sql, rs.next());
+            final Object[] row = new Object[rs.getMetaData().getColumnCount()];
+            for (int i = 0; i < row.length; i++)
+                row[i] = rs.getObject(i + 1);
+            assertFalse(sql, rs.next());
+            statement.close();
+            return row;
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void singleTable() throws Exception {
+        final Cat cat = new Cat();
+        cat.name.set("cat");
+        cat.lives.setInt(9);
+        final Dog dog = new Dog();
+        dog.name.set("dog");
+        dog.breed.set("terrier");
+        dog.chases.set(cat);
+        final Animal animal = new Animal();
+        animal.name.set("animal");
+        final Batch batch = Batch.open(db);
+        try {
+            batch.add(dog);
+            batch.add(animal);
+        } finally {
+            batch.close();
+        }
+        assertTrue(cat.isPersistent());
+        assertArrayEquals(new Object[]{3L}, row("SELECT count(*) FROM Animal"));
+        assertArrayEquals(new Object[]{"cat", 9, null}, row("SELECT name, lives, breed FROM Animal WHERE " + Metadata.Table.DISCRIMINATOR + " = 41"));
+
+        session.clear();
+        final Cat loaded = (Cat) session.load(cat.getUuid().get());
+        assertNotSame(cat, loaded);
+        assertEquals("cat", loaded.name.get());
+        assertEquals(9, loaded.lives.getInt());
+        final Dog chaser = (Dog) session.load(dog.getUuid().get());
+        assertSame(loaded, chaser.chases.get());
+
+        final Cat probe = new Cat();
+        assertEquals(1, Query.from(Cat.class).list().size());
+        assertEquals(1, Query.from(Dog.class).list().size());
+        assertEquals("animal", Query.from(Animal.class).list().get(0).name.get());
+        assertEquals(1, Query.from(Animal.class).list().size());
+        assertEquals(1, Query.from(Cat.class).where(probe.lives.gt(8).and(probe.name.eq("cat"))).list().size());
+        assertEquals(0, Query.from(Cat.class).where(probe.name.eq("dog")).list().size());
+
+        loaded.name.set("tom");
+        loaded.save();
+        assertArrayEquals(new Object[]{"tom", 9}, row("SELECT name, lives FROM Animal WHERE uuid = " + cat.getUuid().get().longValue()));
+        session.clear();
+        assertEquals("tom", ((Cat) session.load(cat.getUuid().get())).name.get());
+    }
+
+    @Test
+    public void joined() throws Exception {
+        final Box box = new Box();
+        box.label.set("box");
+        box.size.setInt(1);
+        final Crate crate = new Crate();
+        crate.label.set("crate");
+        crate.size.setInt(2);
+        crate.wood.set("oak");
+        crate.note.set("fragile");
+        box.save();
+        crate.save();
+        final long id = crate.getUuid().get().longValue();
+        assertArrayEquals(new Object[]{2L}, row("SELECT count(*) FROM Node"));
+        assertArrayEquals(new Object[]{2L}, row("SELECT count(*) FROM Box"));
+        assertArrayEquals(new Object[]{"crate", 2, "oak", "fragile"},
+                row("SELECT n.label, b.size, c.wood, c.note FROM Node n JOIN Box b ON b.uuid = n.uuid JOIN Crate c ON c.uuid = n.uuid"));
+
+        session.clear();
+        metadata.get(Crate.class).getCache().clear();
+        final Crate loaded = (Crate) session.load(crate.getUuid().get());
+        assertEquals("crate", loaded.label.get());
+        assertEquals(2, loaded.size.getInt());
+        assertEquals("oak", loaded.wood.get());
+        assertEquals("fragile", loaded.note.get());
+
+        final Box probe = new Box();
+        assertEquals("box", Query.from(Box.class).list().get(0).label.get());
+        assertEquals(1, Query.from(Box.class).list().size());
+        assertEquals(1, Query.from(Crate.class).list().size());
+        assertEquals(0, Query.from(Box.class).where(probe.label.eq("crate")).list().size());
+        assertEquals(1, Query.from(Crate.class).where(new Crate().wood.eq("oak").and(new Crate().label.eq("crate"))).list().size());
+
+        loaded.label.set("renamed");
+        loaded.wood.set("pine");
+        loaded.save();
+        assertArrayEquals(new Object[]{"renamed", 2, "pine"},
+                row("SELECT n.label, b.size, c.wood FROM Node n JOIN Box b ON b.uuid = n.uuid JOIN Crate c ON c.uuid = n.uuid WHERE n.uuid = " + id));
+        loaded.label.set("label only");
+        loaded.save();
+        assertArrayEquals(new Object[]{"label only", "pine"}, row("SELECT n.label, c.wood FROM Node n JOIN Crate c ON c.uuid = n.uuid WHERE n.uuid = " + id));
+        session.clear();
+        assertEquals("label only", ((Crate) session.load(crate.getUuid().get())).label.get());
+    }
+
+    private void execute(String sql) throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            statement.execute(sql);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private Object[] counts() throws SQLException {
+        return row("SELECT (SELECT count(*) FROM Node), (SELECT count(*) FROM Box), (SELECT count(*) FROM Crate)");
+    }
+
+    /**
+     * a level which fails takes back the levels written before it, so that saving again retries the whole INSERT
+     */
+    @Test
+    public void joinedFailure() throws Exception {
+        execute("ALTER TABLE Crate ADD CHECK (wood <> 'teak')");
+        final Crate crate = new Crate();
+        crate.label.set("crate");
+        crate.wood.set("teak");
+        try {
+            crate.save();
+            fail("CHECK constraint did not fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        assertFalse(crate.isPersistent());
+        assertTrue(crate.isDirty());
+        assertArrayEquals(new Object[]{0L, 0L, 0L}, counts());
+        crate.wood.set("pine");
+        crate.save();
+        assertTrue(crate.isPersistent());
+        assertArrayEquals(new Object[]{1L, 1L, 1L}, counts());
+
+        final Box box = new Box();
+        box.label.set("box");
+        final Crate other = new Crate();
+        other.label.set("other");
+        other.wood.set("teak");
+        final Batch batch = Batch.open(db, 100);
+        try {
+            batch.add(box);
+            batch.add(other);
+            batch.flush();
+            fail("CHECK constraint did not fail");
+        } catch (SQLException e) {
+            // expected
+        } finally {
+            batch.close();
+        }
+        assertFalse(box.isPersistent());
+        assertFalse(other.isPersistent());
+        assertArrayEquals(new Object[]{1L, 1L, 1L}, counts());
+        other.wood.set("oak");
+        final Batch retry = Batch.open(db, 100);
+        try {
+            retry.add(box);
+            retry.add(other);
+        } finally {
+            retry.close();
+        }
+        assertTrue(box.isPersistent());
+        assertTrue(other.isPersistent());
+        assertArrayEquals(new Object[]{3L, 3L, 2L}, counts());
+    }
+
+    /**
+     * the indexes of a single table hierarchy are those of its classes, the ones of a joined one are on their levels
+     */
+    @Test
+    public void indexes() throws Exception {
+        final Set<String> names = new TreeSet<String>();
+        for (Metadata.Index index : missing()) {
+            names.add(index.getName());
+            assertEquals(index.getName(), index.getName().equals("Animal_key"), index.isUnique());
+        }
+        assertEquals(new TreeSet<String>(Arrays.asList("Animal_key", "Animal_name", "Crate_wood")), names);
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            for (Metadata.Index index : missing())
+                statement.execute(index.render());
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals(0, missing().size());
+    }
+}
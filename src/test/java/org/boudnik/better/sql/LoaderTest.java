@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import org.boudnik.qa.core.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.PasswordAuthentication;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link DB#load(Metadata.Table, Iterable)} and {@link DB#load(RowBatch)} through the {@code CSVREAD} of {@link DB.H2Embedded}
+ *
+ * @author shr
+ * @since Oct 18, 2026 3:02:44 PM
+ */
+public class LoaderTest {
+    private static final String[] NAMES = {"plain", "say \"hi\"", "a,b", "two\nlines", "back\\slash", " padded ", "ünïcöde", "'quote'"};
+
+    private static int databases;
+
+    private DB db;
+    private Metadata metadata;
+    private Metadata.Table table;
+    private Session session;
+
+    @Before
+    public void open() throws Exception {
+        db = DB.open(DB.H2Embedded.class, "localhost", "loader" + ++databases, new PasswordAuthentication("sa", new char[0]));
+        metadata = new Metadata(db, OBJ.class, Foo.class);
+        table = metadata.get(Foo.class);
+        session = Session.open(metadata);
+        execute(table.render(), "ALTER TABLE Foo ADD CHECK (age < 100)");
+    }
+
+    @After
+    public void close() {
+        session.close();
+    }
+
+    private void execute(String... sql) throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            for (String s : sql)
+                statement.execute(s);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return nickName, description, age, income and sex of the rows, ordered by age
+     */
+    private List<List<Object>> rows() throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            final ResultSet rs = statement.executeQuery("SELECT nickName, description, age, income, sex FROM Foo ORDER BY age");
+            final List<List<Object>> rows = new ArrayList<List<Object>>();
+            while (rs.next()) {
+                final List<Object> row = new ArrayList<Object>();
+                for (int i = 1; i <= 5; i++)
+                    row.add(i == 2 ? rs.getString(i) : rs.getObject(i));
+                rows.add(row);
+            }
+            statement.close();
+            return rows;
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * every other row keeps NULLs in its nullable columns
+     */
+    private static List<Foo> foos() {
+        final List<Foo> foos = new ArrayList<Foo>();
+        for (int i = 0; i < NAMES.length; i++) {
+            final Foo foo = new Foo();
+            foo.name.set(NAMES[i]);
+            foo.age.setInt(i);
+            foo.sex.set(i % 2 == 0 ? Sex.MALE : Sex.FEMALE);
+            if (i % 2 == 0) {
+                foo.description.set("about " + NAMES[i]);
+                foo.income.setInt(-i);
+            }
+            foos.add(foo);
+        }
+        return foos;
+    }
+
+    private void check() throws SQLException {
+        final List<List<Object>> rows = rows();
+        assertEquals(NAMES.length, rows.size());
+        for (int i = 0; i < NAMES.length; i++) {
+            final List<Object> row = rows.get(i);
+            assertEquals(NAMES[i], row.get(0));
+            assertEquals(i % 2 == 0 ? "about " + NAMES[i] : null, row.get(1));
+            assertEquals(i, row.get(2));
+            assertEquals(i % 2 == 0 ? -i : null, row.get(3));
+            assertEquals((i % 2 == 0 ? Sex.MALE : Sex.FEMALE).getObjectId(), row.get(4));
+        }
+    }
+
+    @Test
+    public void dialects() throws Exception {
+        assertTrue(db.getLoader() instanceof Loader.Csv);
+        assertTrue(db.getLoader().accepts(table));
+        assertTrue(new DB.H2().getLoader() instanceof Loader.Inserts);
+    }
+
+    @Test
+    public void objects() throws Exception {
+        final List<Foo> foos = foos();
+        assertEquals(NAMES.length, db.load(table, foos));
+        for (Foo foo : foos) {
+            assertTrue(foo.isPersistent());
+            assertFalse(foo.isDirty());
+            assertNotNull(foo.getUuid().get());
+        }
+        check();
+        assertEquals(0, db.load(table, foos));
+        assertEquals(NAMES.length, rows().size());
+    }
+
+    @Test
+    public void batch() throws Exception {
+        final RowBatch<Foo> rows = new RowBatch<Foo>(table);
+        for (Foo foo : foos())
+            rows.add(foo);
+        assertEquals(NAMES.length, db.load(rows));
+        for (int row = 0; row < rows.size(); row++)
+            assertTrue(rows.isPersistent(row));
+        check();
+        assertEquals(0, db.load(rows));
+    }
+
+    @Test
+    public void failure() throws Exception {
+        final List<Foo> foos = foos();
+        foos.get(3).age.setInt(200);
+        try {
+            db.load(table, foos);
+            fail("CHECK constraint did not fail");
+        } catch (SQLException e) {
+            // expected
+        }
+        for (Foo foo : foos) {
+            assertFalse(foo.isPersistent());
+            assertTrue(foo.isDirty());
+        }
+        assertEquals(0, rows().size());
+
+        final RowBatch<Foo> rows = new RowBatch<Foo>(table);
+        for (Foo foo : foos)
+            rows.add(foo);
+        try {
+            db.load(rows);
+            fail("CHECK constraint did not fail");
+        } catch (SQLException e) {
+            // expected
+        }
+        for (int row = 0; row < rows.size(); row++)
+            assertFalse(rows.isPersistent(row));
+        assertEquals(0, rows().size());
+
+        foos.get(3).age.setInt(3);
+        assertEquals(NAMES.length, db.load(table, foos));
+        check();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import org.boudnik.qa.core.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.net.PasswordAuthentication;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link Query#page(int, String)} on {@link DB.H2Embedded}, with row values and with the expanded predicate
+ *
+ * @author shr
+ * @since Oct 18, 2026 9:20:15 AM
+ */
+public class PageTest {
+    private static int databases;
+
+    private Session session;
+    private Metadata metadata;
+    private Foo low;
+    private Foo high;
+
+    /**
+     * H2 told to compare keys column by column, as the dialects without row values do
+     */
+    public static class Expanded extends DB.H2 {
+        public Expanded() {
+            super("jdbc:h2:mem:%3$s;DB_CLOSE_DELAY=-1");
+        }
+
+        boolean hasRowValues() {
+            return false;
+        }
+    }
+
+    private void open(Class<? extends DB> dialect) throws Exception {
+        final DB db = DB.open(dialect, "localhost", "page" + ++databases, new PasswordAuthentication("sa", new char[0]));
+        metadata = new Metadata(db, OBJ.class, Foo.class, Sample.class);
+        session = Session.open(metadata);
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            statement.execute(metadata.get(Foo.class).render());
+            statement.execute(metadata.get(Sample.class).render());
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        low = foo("low");
+        high = foo("high");
+        if (low.getUuid().get().longValue() > high.getUuid().get().longValue()) {
+            final Foo swap = low;
+            low = high;
+            high = swap;
+        }
+    }
+
+    @After
+    public void close() {
+        if (session != null)
+            session.close();
+    }
+
+    private static Foo foo(String name) {
+        final Foo foo = new Foo();
+        foo.name.set(name);
+        foo.age.setInt(1);
+        foo.sex.set(Sex.MALE);
+        foo.save();
+        return foo;
+    }
+
+    /**
+     * @param raise index of the key column to take its higher value, or -1 for none
+     */
+    private Sample sample(String s, int raise) {
+        final Sample sample = new Sample();
+        sample.s.set(s);
+        sample.i.setInt(raise == 1 ? 2 : 1);
+        sample.g.setLong(raise == 2 ? 1L << 40 : -1);
+        sample.b.setBoolean(raise == 3);
+        sample.n.set(new BigDecimal(raise == 4 ? "1.25" : "1.20"));
+        sample.d.set(java.sql.Date.valueOf(raise == 5 ? "2026-10-18" : "2026-10-17"));
+        sample.t.set(Time.valueOf(raise == 6 ? "10:00:01" : "10:00:00"));
+        sample.ts.set(Timestamp.valueOf(raise == 7 ? "2026-10-17 10:00:00.000002" : "2026-10-17 10:00:00.000001"));
+        sample.foo.set(raise == 8 ? high : low);
+        sample.sex.set(raise == 9 ? Sex.MALE : Sex.FEMALE);
+        sample.save();
+        return sample;
+    }
+
+    private List<Identity> ordered() throws SQLException {
+        final Sample probe = new Sample();
+        final List<Identity> ids = new ArrayList<Identity>();
+        for (Sample sample : Query.<Sample>from(metadata.get(Sample.class)).orderBy(probe.s, probe.i, probe.g, probe.b, probe.n, probe.d, probe.t, probe.ts, probe.foo, probe.sex, probe.getUuid()).list())
+            ids.add(sample.getUuid().get());
+        return ids;
+    }
+
+    /**
+     * @return ids of all pages; a token which does not move forward fails rather than loops
+     */
+    private List<Identity> paged(int size) throws SQLException {
+        final int rows = ordered().size();
+        final List<Identity> ids = new ArrayList<Identity>();
+        String token = null;
+        do {
+            assertTrue("more rows than the table holds", ids.size() <= rows);
+            final Query.Page<Sample> page = Query.<Sample>from(metadata.get(Sample.class)).page(size, token);
+            assertTrue(page.getRows().size() <= size);
+            for (Sample sample : page.getRows())
+                ids.add(sample.getUuid().get());
+            token = page.getNext();
+        } while (token != null);
+        return ids;
+    }
+
+    /**
+     * every key column decides the order of some neighbours, so a value which does not survive its token loses or
+     * repeats rows
+     */
+    private void roundTrip(Class<? extends DB> dialect) throws Exception {
+        open(dialect);
+        for (int raise = -1; raise < 10; raise++) {
+            sample("a", raise);
+            sample("a", raise);
+        }
+        assertEquals(22, ordered().size());
+        assertEquals(ordered(), paged(1));
+        assertEquals(ordered(), paged(3));
+    }
+
+    private void duplicates(Class<? extends DB> dialect) throws Exception {
+        open(dialect);
+        for (int i = 0; i < 30; i++)
+            sample(i % 2 == 0 ? "a" : "b", i % 3 == 0 ? 1 : -1);
+        final List<Identity> ids = paged(4);
+        assertEquals(30, new HashSet<Identity>(ids).size());
+        assertEquals(ordered(), ids);
+    }
+
+    @Test
+    public void roundTripWithRowValues() throws Exception {
+        roundTrip(DB.H2Embedded.class);
+    }
+
+    @Test
+    public void roundTripExpanded() throws Exception {
+        roundTrip(Expanded.class);
+    }
+
+    @Test
+    public void duplicatesWithRowValues() throws Exception {
+        duplicates(DB.H2Embedded.class);
+    }
+
+    @Test
+    public void duplicatesExpanded() throws Exception {
+        duplicates(Expanded.class);
+    }
+
+    @Test
+    public void predicate() throws Exception {
+        open(DB.H2Embedded.class);
+        final Metadata.Table table = metadata.get(Foo.class);
+        final Object[] values = {"x", Sex.MALE, new Identity(20)};
+        StringBuilder sb = new StringBuilder();
+        new Query.After(table, table.getOrder(), values).render(sb);
+        assertEquals("(nickName, sex, uuid) > (?, ?, ?)", sb.toString());
+        session.close();
+        open(Expanded.class);
+        final Metadata.Table expanded = metadata.get(Foo.class);
+        sb = new StringBuilder();
+        final Query.After after = new Query.After(expanded, expanded.getOrder(), values);
+        after.render(sb);
+        assertEquals("(nickName >= ? AND (nickName > ? OR (sex >= ? AND (sex > ? OR uuid > ?))))", sb.toString());
+        final List<Metadata.Field> fields = new ArrayList<Metadata.Field>();
+        final List<Object> bound = new ArrayList<Object>();
+        after.bind(fields, bound);
+        assertEquals(Arrays.<Object>asList("x", "x", Sex.MALE, Sex.MALE, values[2]), bound);
+    }
+
+    @Test
+    public void lastPage() throws Exception {
+        open(DB.H2Embedded.class);
+        sample("a", -1);
+        sample("a", -1);
+        final Query.Page<Sample> page = Query.<Sample>from(metadata.get(Sample.class)).page(2, null);
+        assertEquals(2, page.getRows().size());
+        assertNull(page.getNext());
+    }
+
+    private String token() throws SQLException {
+        sample("a", -1);
+        sample("b", -1);
+        final String token = Query.<Sample>from(metadata.get(Sample.class)).page(1, null).getNext();
+        assertNotNull(token);
+        return token;
+    }
+
+    private void rejects(String token) throws SQLException {
+        try {
+            Query.<Sample>from(metadata.get(Sample.class)).page(1, token);
+            fail("accepted " + token);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    @Test
+    public void forged() throws Exception {
+        open(DB.H2Embedded.class);
+        final byte[] bytes = Base64.getUrlDecoder().decode(token());
+        rejects("not a token!");
+        rejects(encode(Arrays.copyOf(bytes, bytes.length - 1)));
+        rejects(encode(Arrays.copyOf(bytes, bytes.length + 1)));
+        final byte[] type = bytes.clone();
+        type[4] = 'Z';
+        rejects(encode(type));
+        final ByteArrayOutputStream forged = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(forged);
+        try {
+            out.writeInt(metadata.get(Sample.class).getId());
+            out.writeByte('C');
+            out.writeUTF("sex.X");
+        } finally {
+            out.close();
+        }
+        rejects(encode(forged.toByteArray()));
+    }
+
+    @Test
+    public void otherTable() throws Exception {
+        open(DB.H2Embedded.class);
+        token();
+        final String token = Query.<Foo>from(metadata.get(Foo.class)).page(1, null).getNext();
+        assertNotNull(token);
+        rejects(token);
+    }
+
+    @Test
+    public void emptyAfterToken() throws Exception {
+        open(DB.H2Embedded.class);
+        final String token = token();
+        final Query.Page<Sample> page = Query.<Sample>from(metadata.get(Sample.class)).page(1, token);
+        assertEquals(1, page.getRows().size());
+        assertEquals("b", page.getRows().get(0).s.get());
+        assertNull(page.getNext());
+    }
+}
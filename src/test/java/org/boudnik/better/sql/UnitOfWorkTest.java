@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.better.sql;
+
+import org.boudnik.qa.core.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.PasswordAuthentication;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link UnitOfWork} on {@link DB.H2Embedded}, whose foreign keys tell whether targets are written first
+ *
+ * @author shr
+ * @since Oct 18, 2026 10:11:47 AM
+ */
+public class UnitOfWorkTest {
+    private static int databases;
+
+    private DB db;
+    private Metadata metadata;
+    private Session session;
+
+    @Before
+    public void open() throws Exception {
+        db = DB.open(DB.H2Embedded.class, "localhost", "work" + ++databases, new PasswordAuthentication("sa", new char[0]));
+        metadata = new Metadata(db, OBJ.class, Foo.class, Poo.class, Person.class, Team.class, Node.class, Box.class, Crate.class, Holder.class);
+        session = Session.open(metadata);
+        execute(metadata.get(Foo.class).render(),
+                metadata.get(Poo.class).render(),
+                metadata.get(Person.class).render(),
+                metadata.get(Team.class).render(),
+                metadata.get(Node.class).render(),
+                metadata.get(Box.class).render(),
+                metadata.get(Crate.class).render(),
+                metadata.get(Holder.class).render(),
+                "ALTER TABLE Foo ADD CHECK (age < 100)",
+                "ALTER TABLE Poo ADD FOREIGN KEY (foo) REFERENCES Foo (uuid)",
+                "ALTER TABLE Team ADD FOREIGN KEY (captain) REFERENCES Person (uuid)",
+                "ALTER TABLE Holder ADD FOREIGN KEY (node) REFERENCES Node (uuid)");
+    }
+
+    @After
+    public void close() {
+        session.close();
+    }
+
+    private void execute(String... sql) throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            for (String s : sql)
+                statement.execute(s);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private long count(String table) throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            final ResultSet rs = statement.executeQuery("SELECT count(*) FROM " + table);
+            rs.next();
+            final long count = rs.getLong(1);
+            statement.close();
+            return count;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static Foo foo(String name, int age) {
+        final Foo foo = new Foo();
+        foo.name.set(name);
+        foo.age.setInt(age);
+        foo.sex.set(Sex.FEMALE);
+        return foo;
+    }
+
+    private static long[] dirty(OBJ obj) {
+        return obj.getDirty().clone();
+    }
+
+    @Test
+    public void targetsFirst() throws Exception {
+        final Foo foo = foo("target", 1);
+        final Poo poo = new Poo();
+        poo.foo.set(foo);
+        final UnitOfWork work = UnitOfWork.open(db);
+        try {
+            poo.save();
+            assertNotNull(poo.getUuid().get());
+            assertFalse(poo.isPersistent());
+            work.commit();
+        } finally {
+            work.close();
+        }
+        assertTrue(foo.isPersistent());
+        assertTrue(poo.isPersistent());
+        assertFalse(foo.isDirty());
+        assertEquals(1, count("Foo"));
+        assertEquals(1, count("Poo"));
+    }
+
+    /**
+     * a REF to a class is written after the objects of its subclasses as well
+     */
+    @Test
+    public void subclassTarget() throws Exception {
+        final Crate crate = new Crate();
+        crate.label.set("crate");
+        crate.wood.set("oak");
+        final Holder holder = new Holder();
+        holder.node.set(crate);
+        final UnitOfWork work = UnitOfWork.open(db);
+        try {
+            holder.save();
+            crate.save();
+            work.commit();
+        } finally {
+            work.close();
+        }
+        assertTrue(crate.isPersistent());
+        assertTrue(holder.isPersistent());
+        assertEquals(1, count("Node"));
+        assertEquals(1, count("Crate"));
+        assertEquals(1, count("Holder"));
+    }
+
+    @Test
+    public void cycle() throws Exception {
+        final Person person = new Person();
+        final Team team = new Team();
+        person.name.set("captain");
+        person.team.set(team);
+        team.name.set("team");
+        team.captain.set(person);
+        final UnitOfWork work = UnitOfWork.open(db);
+        try {
+            person.save();
+            team.save();
+            work.commit();
+        } finally {
+            work.close();
+        }
+        assertTrue(person.isPersistent());
+        assertTrue(team.isPersistent());
+        session.clear();
+        final Person loaded = (Person) metadata.get(Person.class).load(person.getUuid().get());
+        assertEquals("team", loaded.team.get().name.get());
+        assertEquals("captain", loaded.team.get().captain.get().name.get());
+    }
+
+    @Test
+    public void retry() throws Exception {
+        final Foo persistent = foo("persistent", 1);
+        persistent.save();
+        metadata.get(Foo.class).load(persistent.getUuid().get());
+        final Foo fresh = foo("fresh", 200);
+        final Poo poo = new Poo();
+        poo.foo.set(fresh);
+        final UnitOfWork work = UnitOfWork.open(db);
+        try {
+            persistent.age.setInt(2);
+            persistent.save();
+            fresh.save();
+            poo.save();
+            final long[] dirty = dirty(persistent);
+            final long[] freshDirty = dirty(fresh);
+            try {
+                work.commit();
+                fail("CHECK constraint did not fail");
+            } catch (SQLException e) {
+                // expected
+            }
+            assertTrue(persistent.isPersistent());
+            assertArrayEquals(dirty, dirty(persistent));
+            assertFalse(fresh.isPersistent());
+            assertArrayEquals(freshDirty, dirty(fresh));
+            assertFalse(poo.isPersistent());
+            assertEquals(1, count("Foo"));
+            assertEquals(0, count("Poo"));
+            session.clear();
+            assertEquals(1, ((Foo) metadata.get(Foo.class).load(persistent.getUuid().get())).age.getInt());
+
+            fresh.age.setInt(20);
+            work.commit();
+        } finally {
+            work.close();
+        }
+        assertTrue(fresh.isPersistent());
+        assertTrue(poo.isPersistent());
+        assertFalse(persistent.isDirty());
+        assertFalse(fresh.isDirty());
+        assertEquals(2, count("Foo"));
+        assertEquals(1, count("Poo"));
+        session.clear();
+        assertEquals(2, ((Foo) metadata.get(Foo.class).load(persistent.getUuid().get())).age.getInt());
+    }
+
+    @Test
+    public void nested() throws Exception {
+        final UnitOfWork outer = UnitOfWork.open(db);
+        try {
+            final Foo first = foo("first", 1);
+            first.save();
+            final UnitOfWork inner = UnitOfWork.open(db);
+            try {
+                final Foo second = foo("second", 2);
+                second.save();
+                inner.commit();
+            } finally {
+                inner.close();
+            }
+            assertEquals(1, count("Foo"));
+            assertSame(outer, UnitOfWork.current());
+            outer.commit();
+        } finally {
+            outer.close();
+        }
+        assertNull(UnitOfWork.current());
+        assertEquals(2, count("Foo"));
+    }
+}
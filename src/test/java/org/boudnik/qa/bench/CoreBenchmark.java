@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.bench;
+
+import org.boudnik.better.sql.DB;
+import org.boudnik.better.sql.Identity;
+import org.boudnik.better.sql.Metadata;
+import org.boudnik.better.sql.OBJ;
+import org.boudnik.qa.core.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.PasswordAuthentication;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping paths which do not touch the database: building {@link Metadata}, FIELD access, {@link Identity}
+ * generation and presentation, {@link OBJ#toString()}.
+ *
+ * @author shr
+ * @since Oct 17, 2026 7:21:05 PM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoreBenchmark {
+    private DB db;
+    private Foo foo;
+    private Identity id;
+    private String presentation;
+    private int age;
+
+    @Setup
+    public void setUp() throws Exception {
+        db = DB.open(DB.H2Embedded.class, "localhost", "core", new PasswordAuthentication("sa", "".toCharArray()));
+        new Metadata(db, OBJ.class, Foo.class, Zoo.class, Bar.class, Poo.class);
+        foo = new Foo();
+        foo.name.set("bla");
+        foo.age.set(15);
+        foo.income.set(1500);
+        foo.sex.set(Sex.FEMALE);
+        id = new Identity(20);
+        presentation = id.toString();
+    }
+
+    @Benchmark
+    public Metadata metadata() {
+        return new Metadata(db, OBJ.class, Foo.class, Zoo.class, Bar.class, Poo.class);
+    }
+
+    @Benchmark
+    public Integer fieldSetGet() {
+        foo.age.set(++age);
+        return foo.age.get();
+    }
+
+    @Benchmark
+    public Foo create() {
+        return new Foo();
+    }
+
+    @Benchmark
+    public Identity identity() {
+        return new Identity(20);
+    }
+
+    @Benchmark
+    public String identityToString() {
+        return id.toString();
+    }
+
+    @Benchmark
+    public Identity identityValueOf() {
+        return Identity.valueOf(presentation);
+    }
+
+    @Benchmark
+    public String objToString() {
+        return foo.toString();
+    }
+}
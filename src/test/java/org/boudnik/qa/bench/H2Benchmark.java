@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.bench;
+
+import org.boudnik.better.sql.*;
+import org.boudnik.qa.core.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.PasswordAuthentication;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hydration and batch insert against in-memory {@link DB.H2Embedded}; scores are per row.
+ * <p>
+ * {@link Zoo} is left out, since H2 has no column type for its IMAGE.
+ *
+ * @author shr
+ * @since Oct 17, 2026 7:34:48 PM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class H2Benchmark {
+    private static final int ROWS = 1000;
+
+    private DB db;
+    private Metadata metadata;
+    private final List<Identity> ids = new ArrayList<Identity>();
+    private Foo referenced;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        db = DB.open(DB.H2Embedded.class, "localhost", "bench", new PasswordAuthentication("sa", "".toCharArray()));
+        metadata = new Metadata(db, OBJ.class, Foo.class, Zoo.class, Bar.class, Poo.class);
+        execute("DROP TABLE IF EXISTS Foo", "DROP TABLE IF EXISTS Poo",
+                metadata.get(Foo.class).render(), metadata.get(Poo.class).render());
+        final Batch batch = Batch.open(db);
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                final Foo foo = foo(i);
+                batch.add(foo);
+                ids.add(foo.getUuid().get());
+                if (referenced == null)
+                    referenced = foo;
+            }
+        } finally {
+            batch.close();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void truncate() throws SQLException {
+        execute("TRUNCATE TABLE Poo");
+        metadata.get(Foo.class).getCache().clear();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        db.getPool().close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void hydrate(Blackhole blackhole) throws SQLException {
+        final Cursor<Foo> cursor = Cursor.open(metadata.get(Foo.class), null);
+        try {
+            while (cursor.hasNext())
+                blackhole.consume(cursor.next());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * {@link Foo} is {@link CACHE cached}, so all but the first pass over the ids are served by the cache
+     */
+    @Benchmark
+    public OBJ load() throws SQLException {
+        final Session session = Session.open(metadata);
+        try {
+            return session.load(ids.get(next++ % ids.size()));
+        } finally {
+            session.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void batchInsert() throws SQLException {
+        final Batch batch = Batch.open(db);
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                final Poo poo = new Poo();
+                poo.foo.set(referenced);
+                batch.add(poo);
+            }
+        } finally {
+            batch.close();
+        }
+    }
+
+    private static Foo foo(int i) {
+        final Foo foo = new Foo();
+        foo.name.set("name" + i);
+        foo.description.set("description of " + i);
+        foo.age.set(i % 100);
+        foo.income.set(i * 10);
+        foo.sex.set(i % 2 == 0 ? Sex.MALE : Sex.FEMALE);
+        return foo;
+    }
+
+    private void execute(String... sql) throws SQLException {
+        final Connection connection = db.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                for (String s : sql)
+                    statement.execute(s);
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.bench;
+
+import org.boudnik.better.sql.Identity;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention of {@link Identity} generation: threads create ids of the same class as fast as they can,
+ * one thread alone and as many threads as there are cores.
+ *
+ * @author shr
+ * @since Oct 17, 2026 5:10:21 PM
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentityBenchmark {
+    private static final int CLASS_ID = 20;
+
+    @Benchmark
+    @Threads(1)
+    public Identity uncontended() {
+        return new Identity(CLASS_ID);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Identity contended() {
+        return new Identity(CLASS_ID);
+    }
+}
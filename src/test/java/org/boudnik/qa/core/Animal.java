@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Root of a hierarchy kept in one table
+ *
+ * @author shr
+ * @since Oct 18, 2026 11:02:17 AM
+ */
+@TABLE(40)
+@INHERITANCE(INHERITANCE.Strategy.SINGLE_TABLE)
+public class Animal extends OBJ {
+    @MANDATORY
+    @LENGTH(20)
+    @INDEX
+    public final STR name = new STR();
+
+    public ComparableFIELD[] getKey() {
+        return new ComparableFIELD[]{name};
+    }
+}
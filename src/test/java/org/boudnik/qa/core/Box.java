@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Level of a {@link Node} joined by uuid
+ *
+ * @author shr
+ * @since Oct 18, 2026 11:06:12 AM
+ */
+@TABLE(51)
+public class Box extends Node {
+    public final INT size = new INT();
+}
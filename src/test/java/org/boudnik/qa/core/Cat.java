@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Row of the {@link Animal} table
+ *
+ * @author shr
+ * @since Oct 18, 2026 11:03:40 AM
+ */
+@TABLE(41)
+public class Cat extends Animal {
+    @MANDATORY
+    public final INT lives = new INT();
+}
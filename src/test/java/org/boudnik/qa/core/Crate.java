@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Third level of a {@link Node}, with an index and a deferred column
+ *
+ * @author shr
+ * @since Oct 18, 2026 11:06:48 AM
+ */
+@TABLE(52)
+@CACHE
+public class Crate extends Box {
+    @LENGTH(10)
+    @INDEX
+    public final STR wood = new STR();
+    @DEFERRED
+    @LENGTH(100)
+    public final STR note = new STR();
+}
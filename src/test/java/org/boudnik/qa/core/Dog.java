@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Row of the {@link Animal} table which refers to another one
+ *
+ * @author shr
+ * @since Oct 18, 2026 11:04:05 AM
+ */
+@TABLE(42)
+public class Dog extends Animal {
+    @LENGTH(10)
+    public final STR breed = new STR();
+    public final REF<Cat> chases = new REF<Cat>(Cat.class);
+}
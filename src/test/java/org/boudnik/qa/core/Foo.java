@@ -11,6 +11,7 @@ import org.boudnik.better.sql.*;
  * @since Aug 31, 2005 6:46:49 PM
  */
 @TABLE(20)
+@CACHE
 public class Foo extends OBJ {
     @MANDATORY
     @LENGTH(32)
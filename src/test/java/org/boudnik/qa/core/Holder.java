@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Refers to a {@link Node}, whose rows are of its subclasses
+ *
+ * @author shr
+ * @since Oct 18, 2026 2:21:09 PM
+ */
+@TABLE(53)
+public class Holder extends OBJ {
+    public final REF<Node> node = new REF<Node>(Node.class);
+}
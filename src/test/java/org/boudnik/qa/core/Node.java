@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Root of a hierarchy whose classes keep their own columns in tables of their own
+ *
+ * @author shr
+ * @since Oct 18, 2026 11:05:31 AM
+ */
+@TABLE(50)
+@INHERITANCE(INHERITANCE.Strategy.JOINED)
+public abstract class Node extends OBJ {
+    @MANDATORY
+    @LENGTH(20)
+    public final STR label = new STR();
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Member of a {@link Team}, which refers back to its captain
+ *
+ * @author shr
+ * @since Oct 18, 2026 10:04:31 AM
+ */
+@TABLE(31)
+public class Person extends OBJ {
+    @MANDATORY
+    @LENGTH(32)
+    public final STR name = new STR();
+    public final REF<Team> team = new REF<Team>(Team.class);
+}
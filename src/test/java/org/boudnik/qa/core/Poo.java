@@ -4,6 +4,7 @@
 
 package org.boudnik.qa.core;
 
+import org.boudnik.better.sql.INDEX;
 import org.boudnik.better.sql.MANDATORY;
 import org.boudnik.better.sql.OBJ;
 import org.boudnik.better.sql.TABLE;
@@ -15,5 +16,6 @@ import org.boudnik.better.sql.TABLE;
 @TABLE(8)
 public class Poo extends OBJ {
     @MANDATORY
+    @INDEX
     public final REF<Foo> foo = new REF<Foo>(Foo.class);
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Key of a column of every comparable type, for keyset paging
+ *
+ * @author shr
+ * @since Oct 18, 2026 9:12:40 AM
+ */
+@TABLE(30)
+public class Sample extends OBJ {
+    @MANDATORY
+    @LENGTH(10)
+    public final STR s = new STR();
+    @MANDATORY
+    public final INT i = new INT();
+    @MANDATORY
+    public final LONG g = new LONG();
+    @MANDATORY
+    public final BOOL b = new BOOL();
+    @MANDATORY
+    public final NUMERIC n = new NUMERIC();
+    @MANDATORY
+    public final DATE d = new DATE();
+    @MANDATORY
+    public final TIME t = new TIME();
+    @MANDATORY
+    public final TIMESTAMP ts = new TIMESTAMP();
+    @MANDATORY
+    public final REF<Foo> foo = new REF<Foo>(Foo.class);
+    @MANDATORY
+    public final CODEREF<Sex> sex = new CODEREF<Sex>(Sex.class);
+
+    public ComparableFIELD[] getKey() {
+        return new ComparableFIELD[]{s, i, g, b, n, d, t, ts, foo, sex};
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * Refers to its captain, a {@link Person} who refers back to the team
+ *
+ * @author shr
+ * @since Oct 18, 2026 10:05:12 AM
+ */
+@TABLE(32)
+public class Team extends OBJ {
+    @MANDATORY
+    @LENGTH(32)
+    public final STR name = new STR();
+    public final REF<Person> captain = new REF<Person>(Person.class);
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2009-2017 Alexandre Boudnik (shr). All rights reserved.
+ */
+
+package org.boudnik.qa.core;
+
+import org.boudnik.better.sql.*;
+
+/**
+ * More columns than one word of the dirty mask holds
+ *
+ * @author shr
+ * @since Oct 18, 2026 4:21:07 PM
+ */
+@TABLE(60)
+public class Wide extends OBJ {
+    public final INT c0 = new INT();
+    public final INT c1 = new INT();
+    public final INT c2 = new INT();
+    public final INT c3 = new INT();
+    public final INT c4 = new INT();
+    public final INT c5 = new INT();
+    public final INT c6 = new INT();
+    public final INT c7 = new INT();
+    public final INT c8 = new INT();
+    public final INT c9 = new INT();
+    public final INT c10 = new INT();
+    public final INT c11 = new INT();
+    public final INT c12 = new INT();
+    public final INT c13 = new INT();
+    public final INT c14 = new INT();
+    public final INT c15 = new INT();
+    public final INT c16 = new INT();
+    public final INT c17 = new INT();
+    public final INT c18 = new INT();
+    public final INT c19 = new INT();
+    public final INT c20 = new INT();
+    public final INT c21 = new INT();
+    public final INT c22 = new INT();
+    public final INT c23 = new INT();
+    public final INT c24 = new INT();
+    public final INT c25 = new INT();
+    public final INT c26 = new INT();
+    public final INT c27 = new INT();
+    public final INT c28 = new INT();
+    public final INT c29 = new INT();
+    public final INT c30 = new INT();
+    public final INT c31 = new INT();
+    public final INT c32 = new INT();
+    public final INT c33 = new INT();
+    public final INT c34 = new INT();
+    public final INT c35 = new INT();
+    public final INT c36 = new INT();
+    public final INT c37 = new INT();
+    public final INT c38 = new INT();
+    public final INT c39 = new INT();
+    public final INT c40 = new INT();
+    public final INT c41 = new INT();
+    public final INT c42 = new INT();
+    public final INT c43 = new INT();
+    public final INT c44 = new INT();
+    public final INT c45 = new INT();
+    public final INT c46 = new INT();
+    public final INT c47 = new INT();
+    public final INT c48 = new INT();
+    public final INT c49 = new INT();
+    public final INT c50 = new INT();
+    public final INT c51 = new INT();
+    public final INT c52 = new INT();
+    public final INT c53 = new INT();
+    public final INT c54 = new INT();
+    public final INT c55 = new INT();
+    public final INT c56 = new INT();
+    public final INT c57 = new INT();
+    public final INT c58 = new INT();
+    public final INT c59 = new INT();
+    public final INT c60 = new INT();
+    public final INT c61 = new INT();
+    public final INT c62 = new INT();
+    public final INT c63 = new INT();
+    public final INT c64 = new INT();
+    public final INT c65 = new INT();
+    public final INT c66 = new INT();
+    public final INT c67 = new INT();
+    public final INT c68 = new INT();
+    public final INT c69 = new INT();
+}